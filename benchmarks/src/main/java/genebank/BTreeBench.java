@@ -0,0 +1,130 @@
+package genebank;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// BTree on a file of size random keys of length k, degree t, with or
+// without the node cache.  The tree is bulk loaded again before every
+// iteration, so the inserts of one iteration don't pile up in the next.
+// Queries cycle through pre-drawn keys: hits are keys in the tree, misses
+// keys that aren't.  disk_read reads random node slots and disk_write
+// rewrites one node; with the cache on both go through it, as they do for
+// insert and search.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BTreeBench {
+
+    static final int QUERIES = 1 << 16;
+
+    @Param({"16", "128"})
+    int t;
+
+    @Param({"11", "31"})
+    int k;
+
+    @Param({"false", "true"})
+    boolean cache;
+
+    @Param({"10000", "1000000"})
+    int size;
+
+    File dir;
+    long[] keys;        // in the tree, ascending
+    long[] hits;
+    long[] misses;
+    long[] inserts;     // random keys, some already in the tree
+    long[] slots;       // node addresses
+    BTree btree;
+    BTree.BTreeNode node;
+    int i;
+
+    @Setup(Level.Trial)
+    public void data() throws IOException {
+        SplittableRandom rnd = new SplittableRandom(BenchData.SEED);
+        keys = BenchData.distinct_keys(rnd, k, size);
+        hits = BenchData.sample(rnd, keys, QUERIES);
+        misses = BenchData.absent(rnd, keys, k, QUERIES);
+        inserts = BenchData.absent(rnd, new long[0], k, QUERIES);
+        dir = BenchData.temp_dir();
+    }
+
+    @Setup(Level.Iteration)
+    public void build() {
+        String file = new File(dir, "bench.btree").getPath();
+        new File(file).delete();
+        btree = new BTree(k, t, file, cache ? BTree.DEFAULT_CACHE_SIZE : 0);
+        BTree.Loader loader = btree.bulk_loader(1.0);
+        for (long key : keys) {
+            loader.add(key, 1);
+        }
+        loader.finish();
+        long nodes = btree.slots.index(btree.next_address);
+        SplittableRandom rnd = new SplittableRandom(BenchData.SEED);
+        slots = new long[QUERIES];
+        for (int j = 0; j < QUERIES; j++) {
+            slots[j] = btree.slots.address(rnd.nextLong(nodes));
+        }
+        node = btree.new BTreeNode();
+        btree.disk_read(slots[0], node);
+        i = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        btree.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void clean() {
+        BenchData.delete(dir);
+    }
+
+    private int next() {
+        return i = (i + 1) & (QUERIES - 1);
+    }
+
+    @Benchmark
+    public void insert() {
+        btree.insert(inserts[next()], 1);
+    }
+
+    @Benchmark
+    public BTree.BTreeNode search_hit() {
+        return btree.search(hits[next()]);
+    }
+
+    @Benchmark
+    public BTree.BTreeNode search_miss() {
+        return btree.search(misses[next()]);
+    }
+
+    @Benchmark
+    public BTree.BTreeNode disk_read() {
+        return btree.disk_read(slots[next()], node);
+    }
+
+    // writes back the node read at setup, unchanged, so the tree stays valid
+    @Benchmark
+    public void disk_write() {
+        btree.disk_write(node);
+    }
+}
@@ -0,0 +1,126 @@
+package genebank;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Synthetic inputs for the benchmarks, generated in-process from a fixed
+// seed so every run and every fork sees the same data.
+class BenchData {
+
+    static final long SEED = 42;
+    static final String BASES = "acgt";
+
+    // n distinct random keys of length k in ascending order, n <= 4^k
+    static long[] distinct_keys(SplittableRandom rnd, int k, int n) {
+        long bound = 1L << (2*k);
+        if (n > bound) {
+            throw new IllegalArgumentException(n + " distinct keys of length " + k + " don't exist");
+        }
+        long[] keys = new long[0];
+        int have = 0;
+        while (have < n) {
+            // draw what is missing plus some, then drop the duplicates
+            long[] more = Arrays.copyOf(keys, have + 2*(n - have) + 16);
+            for (int i = have; i < more.length; i++) {
+                more[i] = rnd.nextLong(bound);
+            }
+            Arrays.sort(more);
+            have = 0;
+            for (int i = 0; i < more.length; i++) {
+                if (have == 0 || more[i] != more[have - 1]) {
+                    more[have++] = more[i];
+                }
+            }
+            keys = more;
+        }
+        // a random subset of n, still in order
+        for (int i = have - 1; i >= n; i--) {
+            int j = rnd.nextInt(i + 1);
+            keys[j] = keys[i];
+        }
+        keys = Arrays.copyOf(keys, n);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    // n keys drawn from sorted at random
+    static long[] sample(SplittableRandom rnd, long[] sorted, int n) {
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = sorted[rnd.nextInt(sorted.length)];
+        }
+        return keys;
+    }
+
+    // n random keys of length k that are not in sorted, or random keys if
+    // sorted holds nearly every key of that length
+    static long[] absent(SplittableRandom rnd, long[] sorted, int k, int n) {
+        long bound = 1L << (2*k);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long key = rnd.nextLong(bound);
+            for (int tries = 0; tries < 100 && Arrays.binarySearch(sorted, key) >= 0; tries++) {
+                key = rnd.nextLong(bound);
+            }
+            keys[i] = key;
+        }
+        return keys;
+    }
+
+    // the k-base string of key, as GeneBankCreateBTree.key_decode gives it
+    static String[] strings(long[] keys, int k) {
+        String[] s = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            char[] c = new char[k];
+            for (int j = 0; j < k; j++) {
+                c[k - 1 - j] = BASES.charAt((int)(keys[i] >>> (2*j)) & 3);
+            }
+            s[i] = new String(c);
+        }
+        return s;
+    }
+
+    // A gbk file of records with random bases, each laid out like GenBank's
+    // ORIGIN section: 60 bases a line in groups of 10 after the position.
+    static File gbk_file(File dir, SplittableRandom rnd, int records, int bases) throws IOException {
+        File f = new File(dir, "synthetic.gbk");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(f), 1 << 16)) {
+            for (int r = 0; r < records; r++) {
+                out.write("LOCUS       SYN" + r + "  " + bases + " bp    DNA\n");
+                out.write("DEFINITION  synthetic benchmark record.\n");
+                out.write("ORIGIN      \n");
+                for (int i = 0; i < bases; i += 60) {
+                    out.write(String.format("%9d", i + 1));
+                    for (int j = i; j < Math.min(i + 60, bases); j++) {
+                        if ((j - i) % 10 == 0) {
+                            out.write(' ');
+                        }
+                        out.write(BASES.charAt(rnd.nextInt(4)));
+                    }
+                    out.write('\n');
+                }
+                out.write("//\n");
+            }
+        }
+        return f;
+    }
+
+    static File temp_dir() throws IOException {
+        return Files.createTempDirectory("genebank-bench").toFile();
+    }
+
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,83 @@
+package genebank;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// GbkParser.parse over a synthetic gbk file of 4 records, one parse of the
+// whole file per operation.  parse only hands the bases to a consumer that
+// counts them; scan also runs them through a KmerScanner of length k, the
+// way a KmerCounter worker scans its chunks.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GbkParseBench {
+
+    @Param({"100000", "2500000"})
+    int bases;      // per record
+
+    @Param({"20"})
+    int k;
+
+    File dir;
+    String gbk_file;
+
+    @Setup
+    public void data() throws IOException {
+        dir = BenchData.temp_dir();
+        gbk_file = BenchData.gbk_file(dir, new SplittableRandom(BenchData.SEED), 4, bases).getPath();
+    }
+
+    @TearDown
+    public void clean() {
+        BenchData.delete(dir);
+    }
+
+    static class Counter implements GbkParser.BaseConsumer {
+        long n;
+
+        public void start_record() {
+        }
+
+        public void bases(byte[] b, int off, int len) {
+            n += len;
+        }
+
+        public void end_record() {
+        }
+    }
+
+    @Benchmark
+    public long parse() {
+        Counter c = new Counter();
+        GbkParser.parse(gbk_file, c);
+        return c.n;
+    }
+
+    @Benchmark
+    public long scan() {
+        final long[] sum = new long[1];
+        GbkParser.parse(gbk_file, new KmerScanner(k) {
+            void kmer(int j, long key) {
+                sum[0] += key;
+            }
+        });
+        return sum[0];
+    }
+}
@@ -0,0 +1,56 @@
+package genebank;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// GeneBankCreateBTree.seq_encode and key_decode on random k-mers, one
+// k-mer per operation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyCodecBench {
+
+    static final int KEYS = 1 << 12;
+
+    @Param({"11", "31"})
+    int k;
+
+    long[] keys;
+    String[] seqs;
+    int i;
+
+    @Setup
+    public void data() {
+        SplittableRandom rnd = new SplittableRandom(BenchData.SEED);
+        keys = BenchData.absent(rnd, new long[0], k, KEYS);
+        seqs = BenchData.strings(keys, k);
+    }
+
+    private int next() {
+        return i = (i + 1) & (KEYS - 1);
+    }
+
+    @Benchmark
+    public Long seq_encode() {
+        return GeneBankCreateBTree.seq_encode(seqs[next()]);
+    }
+
+    @Benchmark
+    public String key_decode() {
+        return GeneBankCreateBTree.key_decode(keys[next()], k);
+    }
+}
@@ -0,0 +1,211 @@
+package genebank;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+// Writes a B+tree file (BTree.BPLUS) from (key, freq) pairs given in
+// strictly increasing key order.  Only the leaves hold freqs:
+//   leaf      +0 char 'L', +2 char root, +4 int n, +8 long next leaf or -1,
+//             +16 n x (long key, int freq), as many as fit in the slot
+//   internal  +0 char 'I', +2 char root, +4 int n, +8 (2t-1) x long key,
+//             then 2t x long child address, -1 if unused
+// keys[i] of an internal node is the smallest key under child i+1.  With
+// no freqs the internal nodes are 32t bytes instead of 40t-4, and the
+// leaves take the first slots of the file in key order, each linked to the
+// next, so a range scan reads them sequentially.
+//
+// The number of keys is given up front, so the size of every level is
+// known before the first key arrives: the keys are spread evenly over the
+// leaves and the children evenly over the nodes above.  Every node has its
+// address from the start and is written once, as soon as it is full.
+class BPlusLoader implements BTree.Loader {
+
+    int t;
+    long slot;          // bytes per node slot
+    BTree.Slots slots;
+    int leaf_keys;      // keys that fit in a leaf
+    RandomAccessFile file;
+    FileChannel channel;
+    ByteBuffer buf;     // one encoded node
+    long count;         // keys expected
+    long added;
+    long last_key;
+
+    // per level, 0 = leaves
+    long[] nodes;       // nodes in the level
+    long[] items;       // keys (leaves) or children in the level
+    long[] first;       // slot of the first node of the level
+    long[] done;        // nodes of the level written so far
+    int[] n;            // keys or children in the node being filled
+    long[] min;         // smallest key under the node being filled
+    long[][] keys;      // leaf keys, or separators of internal nodes
+    long[][] children;
+    int[] freqs;
+
+    public BPlusLoader(String filename, int k, int t, int flags, int page_bytes, long count, double fill) {
+        this.t = t;
+        this.count = count;
+        slot = BTree.slot_bytes(k, t, flags, page_bytes);
+        slots = new BTree.Slots(slot, page_bytes, page_bytes);
+        leaf_keys = (int)((slot - 16) / 12);
+
+        // keys per leaf and children per internal node at the fill factor;
+        // three children at least, so every node gets two after spreading
+        int leaf_fill = Math.max(1, Math.min(leaf_keys, (int)Math.round(fill * leaf_keys)));
+        int fanout = Math.max(3, Math.min(2*t, (int)Math.round(fill * (2*t-1)) + 1));
+        ArrayList<Long> sizes = new ArrayList<>();
+        sizes.add(Math.max(1L, (count + leaf_fill - 1) / leaf_fill));
+        while (sizes.get(sizes.size() - 1) > 1) {
+            long below = sizes.get(sizes.size() - 1);
+            sizes.add((below + fanout - 1) / fanout);
+        }
+        int levels = sizes.size();
+        nodes = new long[levels];
+        items = new long[levels];
+        first = new long[levels];
+        done = new long[levels];
+        n = new int[levels];
+        min = new long[levels];
+        keys = new long[levels][];
+        children = new long[levels][];
+        for (int l = 0; l < levels; l++) {
+            nodes[l] = sizes.get(l);
+            items[l] = (l == 0) ? count : nodes[l - 1];
+            first[l] = (l == 0) ? 0 : first[l - 1] + nodes[l - 1];
+            keys[l] = new long[(l == 0) ? leaf_keys : 2*t-1];
+            children[l] = (l == 0) ? null : new long[2*t];
+        }
+        freqs = new int[leaf_keys];
+        buf = ByteBuffer.allocateDirect((int)slot);
+
+        System.err.println("creating block file " + filename + ".  k = " + k + ", t = " + t);
+        try {
+            file = new RandomAccessFile(filename, "rw");
+            BTree.write_header(file, k, t, flags, page_bytes);
+        } catch (FileNotFoundException ex) {
+            System.err.println("Can't open btree file " + filename + ". Exiting");
+            System.exit(1);
+        } catch (IOException ex) {
+            System.err.println("Can't write metadata to btree file " + filename + ". Exiting");
+            System.exit(1);
+        }
+        channel = file.getChannel();
+    }
+
+    public void add(long key, int freq) {
+        if (added > 0 && key <= last_key) {
+            System.err.println("bulk load keys out of order: " + key + " after " + last_key + ". Exiting");
+            System.exit(1);
+        }
+        if (added == count) {
+            System.err.println("bulk load got more than the " + count + " keys it was sized for. Exiting");
+            System.exit(1);
+        }
+        last_key = key;
+        added++;
+        int i = n[0]++;
+        keys[0][i] = key;
+        freqs[i] = freq;
+        if (n[0] == size(0)) {
+            close(0);
+        }
+    }
+
+    public void finish() {
+        if (added != count) {
+            System.err.println("bulk load got " + added + " keys, expected " + count + ". Exiting");
+            System.exit(1);
+        }
+        if (count == 0) {
+            close(0); // an empty root leaf
+        }
+        try {
+            file.seek(12);
+            file.writeLong(address(nodes.length - 1, 0));
+            file.close();
+        } catch (IOException ex) {
+            System.err.println("Can't access file " + file);
+            System.exit(1);
+        }
+    }
+
+    // items in the node of level l being filled
+    private long size(int l) {
+        long base = items[l] / nodes[l];
+        return base + ((done[l] < items[l] % nodes[l]) ? 1 : 0);
+    }
+
+    private long address(int l, long j) {
+        return slots.address(first[l] + j);
+    }
+
+    // writes the node of level l being filled and hands it to its parent
+    private void close(int l) {
+        long address = address(l, done[l]);
+        boolean root = l == nodes.length - 1;
+        // slots need not be a multiple of 8 bytes
+        int z = 0;
+        for (; z + 8 <= slot; z += 8) {
+            buf.putLong(z, 0L);
+        }
+        for (; z < slot; z++) {
+            buf.put(z, (byte)0);
+        }
+        buf.putChar(2, root ? 'R' : 'N');
+        if (l == 0) {
+            buf.putChar(0, 'L');
+            buf.putInt(4, n[0]);
+            buf.putLong(8, (done[0] + 1 < nodes[0]) ? address(0, done[0] + 1) : -1L);
+            int p = 16;
+            for (int i = 0; i < n[0]; i++) {
+                buf.putLong(p, keys[0][i]);
+                buf.putInt(p + 8, freqs[i]);
+                p += 12;
+            }
+            min[0] = keys[0][0];
+        }
+        else {
+            buf.putChar(0, 'I');
+            buf.putInt(4, n[l] - 1);
+            for (int i = 0; i < n[l] - 1; i++) {
+                buf.putLong(8 + 8*i, keys[l][i]);
+            }
+            int p = 8 + 8*(2*t-1);
+            for (int i = 0; i < 2*t; i++) {
+                buf.putLong(p + 8*i, (i < n[l]) ? children[l][i] : -1L);
+            }
+        }
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                channel.write(buf, address + buf.position());
+            }
+        } catch (IOException ex) {
+            System.err.println("IOException in disk_write at address " + address + ".  Exiting.");
+            System.exit(1);
+        }
+        done[l]++;
+        n[l] = 0;
+        if (!root) {
+            add_child(l + 1, min[l], address);
+        }
+    }
+
+    private void add_child(int l, long key, long address) {
+        int i = n[l]++;
+        if (i == 0) {
+            min[l] = key;
+        }
+        else {
+            keys[l][i - 1] = key;
+        }
+        children[l][i] = address;
+        if (n[l] == size(l)) {
+            close(l);
+        }
+    }
+}
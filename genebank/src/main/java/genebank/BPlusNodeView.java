@@ -0,0 +1,49 @@
+package genebank;
+
+import java.nio.ByteBuffer;
+
+// A NodeView over a node of a B+tree file (see BPlusLoader).  Leaves and
+// internal nodes keep their keys at different offsets, and only leaves
+// have freqs and a next leaf.
+class BPlusNodeView extends NodeView {
+
+    boolean leaf;
+
+    public BPlusNodeView(int t) {
+        super(t);
+        children_off = 8 + 8*(2*t-1);
+    }
+
+    @Override
+    public NodeView set(ByteBuffer buf, int base, long address) {
+        super.set(buf, base, address);
+        leaf = buf.getChar(base) == 'L';
+        return this;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    @Override
+    public long key(int i) {
+        return leaf ? buf.getLong(base + 16 + 12*i) : buf.getLong(base + 8 + 8*i);
+    }
+
+    @Override
+    public int freq(int i) {
+        return buf.getInt(base + 24 + 12*i);
+    }
+
+    // address of the next leaf, -1 after the last one
+    public long next() {
+        return buf.getLong(base + 8);
+    }
+
+    // freq of key in this leaf, 0 if it isn't there
+    public int freq_of(long key) {
+        int i = find(key);
+        return (i < n() && key(i) == key) ? freq(i) : 0;
+    }
+}
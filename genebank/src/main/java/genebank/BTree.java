@@ -0,0 +1,1690 @@
+package genebank;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+class BTree {
+
+    BTreeNode root;
+    int k; // sequence length
+    int t; // degree
+    RandomAccessFile file;
+    FileChannel channel; // nodes are read and written whole through the channel
+    ByteBuffer node_buf; // one encoded node
+    long rpos; // position of root node in file
+    long meta_bytes; // header size, nodes start here
+    long num_nodes;
+    long next_address; // next available address
+    long NODE_BYTES;
+    Slots slots; // where the nodes are in the file
+    // keys a node can hold: 2t-1, or as many as could fit the slot in the
+    // compact encoding, whose nodes are full when their bytes are, see room
+    int max_keys;
+    long compact_limit; // bytes a compact node may take in its slot
+    long max_key;       // the largest key of length k
+    static final int DEFAULT_CACHE_SIZE = 1000; // nodes kept in memory when no cache size is given
+
+    // file header.  Version 1 files (magic 1234) have a 20 byte header and
+    // the nodes packed back to back after it.  Version 2 files (magic 1235)
+    // are what we write: the header fills the first page and adds the
+    // flags and the page size, and the nodes of a page are spread over it
+    // evenly, see slot_bytes.
+    static final int MAGIC_V1 = 1234;
+    static final int MAGIC = 1235;
+    static final long META_BYTES_V1 = 20L;
+    static final long META_BYTES = 28L;  // used bytes of a version 2 header page
+    static final int DEFAULT_PAGE_BYTES = 4096;
+    static final int CANONICAL = 1; // flag: keys are min(kmer, reverse complement)
+    static final int COMPACT = 2;   // flag: nodes use the compact encoding, see write_compact
+    static final int BPLUS = 4;     // flag: a B+tree, see BPlusLoader
+    int flags;
+    int page_bytes; // 0 in version 1 files
+
+    // buffer pool of recently used nodes, keyed by file address and kept in
+    // LRU order.  Writes only mark a node dirty; dirty nodes are written to
+    // the file when they are evicted or when the tree is closed.  Nodes are
+    // copied in and out of the pool frames, so callers always own the nodes
+    // they hold and a frame can be reused without invalidating them.
+    NodeCache cache;
+    BTreeNode[] frames;
+    int cache_size;
+
+    // nodes reused by search and insert so the descent allocates nothing
+    BTreeNode[] scratch;
+    // one node per level for search_batch and range, grown as needed
+    BTreeNode[] levels = new BTreeNode[0];
+
+    // Per-thread state of the concurrent read path (find, find_batch): one
+    // view per tree level, each over its own node buffer.
+    ThreadLocal<NodeView[]> readers = ThreadLocal.withInitial(() -> new NodeView[0]);
+
+    // I/O counters and latencies, kept only if set (--stats).  The JFR
+    // events of BTreeEvents are emitted either way.
+    BTreeStats stats;
+
+    // receives the keys of a range query in order; return false to stop
+    public interface KeyVisitor {
+        boolean visit(long key, int freq);
+    }
+
+    // builds a tree from (key, freq) pairs given in strictly increasing key order
+    public interface Loader {
+        void add(long key, int freq);
+        void finish();
+    }
+
+    // a key found by find(); immutable so it can be handed between threads
+    public static final class Hit {
+        public final long key;
+        public final int freq;
+
+        public Hit(long key, int freq) {
+            this.key = key;
+            this.freq = freq;
+        }
+    }
+
+    public BTree(int k, int t, String filename) {
+        this(k, t, filename, 0);
+    }
+
+    public BTree(int k, int t, String filename, int cache_size) {
+        this(k, t, filename, cache_size, 0);
+    }
+
+    public BTree(int k, int t, String filename, int cache_size, int flags) {
+        this(k, t, filename, cache_size, flags, DEFAULT_PAGE_BYTES);
+    }
+
+    // The canonical flag must match that of an existing file, whose other
+    // flags and page size are taken from its header.  page_bytes must be a
+    // power of two.
+    public BTree(int k, int t, String filename, int cache_size, int flags, int page_bytes) {
+        int mode = 0;  // 0 create file, 1 file already exists
+        this.k = k;
+        this.t = t;
+        this.flags = flags;
+        this.page_bytes = page_bytes;
+        this.cache_size = cache_size;
+        this.max_key = (1L << 2*k) - 1;
+        try {
+            file = new RandomAccessFile(filename, "rw");
+        } catch (FileNotFoundException ex) {
+            System.err.println("Can't open btree file " + filename + ". Exiting");
+            System.exit(1);
+        }
+        channel = file.getChannel();
+        try {
+            // write metadata node first to set rpos
+            mode = init_metadata(filename, file, k, t);
+        } catch (IOException ex) {
+            System.err.println("Can't write metadata to btree file " + filename + ". Exiting");
+            System.exit(1);
+        }
+        if((this.flags & BPLUS) != 0) {
+            System.err.println(filename + " holds a B+tree, search it through MappedBTree. Exiting");
+            System.exit(1);
+        }
+        // an existing file may have been built with the other node encoding
+        NODE_BYTES = slots.bytes;
+        node_buf = ByteBuffer.allocateDirect((int)NODE_BYTES);
+        if((this.flags & COMPACT) != 0) {
+            compact_limit = NODE_BYTES - 8;
+            // a leaf of one byte deltas and freqs
+            max_keys = (int)Math.max(2*t-1, (compact_limit - compact_bytes(k, 1, true, 1, 1)) / 2 + 1);
+        }
+        else {
+            max_keys = 2*t-1;
+        }
+        if(cache_size > 0) {
+            cache = new NodeCache(cache_size);
+            frames = new BTreeNode[cache_size];
+            for(int i = 0; i < cache_size; i++) {
+                frames[i] = new BTreeNode();
+            }
+        }
+        scratch = new BTreeNode[3];
+        for(int i = 0; i < scratch.length; i++) {
+            scratch[i] = new BTreeNode();
+        }
+        if(mode == 1) {
+            try {
+                num_nodes = slots.count(file.length());
+            } catch (IOException ex) {
+                System.err.println("Can't access file " + filename + ". Exiting");
+                System.exit(1);
+            }
+        }
+
+        // new nodes go after the last slot of an existing file
+        next_address = (mode == 1) ? slots.address(num_nodes) : rpos;
+
+        if(mode == 0) {
+            root = new_node();
+            root.setLeaf(true);
+            root.setRoot(true);
+            disk_write(root);
+        }
+        else {
+            root = disk_read(rpos, new BTreeNode()); // read the root node from disk
+        }
+    }
+
+    public class BTreeNode {
+        char leaf;
+        char root;
+        int n;
+        long[] keys;
+        int[] freqs;     // freqs[i] = number of times keys[i] was seen
+        long[] children; // file byte offset of children, -1 if unused
+
+        long address;
+        boolean dirty; // modified in the cache but not yet written to the file
+        public int search_idx;
+
+        public BTreeNode() {
+            keys = new long[max_keys];
+            freqs = new int[max_keys];
+            children = new long[max_keys + 1];
+            reset();
+        }
+
+        // make this an empty leaf with no address so the instance can be reused
+        public void reset() {
+            n = 0;
+            Arrays.fill(children, -1L);
+            search_idx = -1;
+            address = -1L;
+            dirty = false;
+            leaf = 'L';
+            root = 'N';
+        }
+
+        public void copy_from(BTreeNode x) {
+            // children past n+1 are -1 in every node, so only the ones
+            // either node uses are copied
+            int c = Math.min(Math.max(n, x.n) + 1, children.length);
+            leaf = x.leaf;
+            root = x.root;
+            n = x.n;
+            System.arraycopy(x.keys, 0, keys, 0, x.n);
+            System.arraycopy(x.freqs, 0, freqs, 0, x.n);
+            System.arraycopy(x.children, 0, children, 0, c);
+            address = x.address;
+            search_idx = x.search_idx;
+        }
+
+        // index of the first key >= key, or n if all keys are smaller.
+        // Branchless binary search: the loop always runs log2(n) steps and
+        // each comparison only selects the next base, which the JIT compiles
+        // to a conditional move instead of a mispredicted branch.
+        public int find(long key) {
+            if (n == 0) {
+                return 0;
+            }
+            int base = 0;
+            int len = n;
+            while (len > 1) {
+                int half = len >>> 1;
+                base = (keys[base + half] < key) ? base + half : base;
+                len -= half;
+            }
+            return (keys[base] < key) ? base + 1 : base;
+        }
+
+        public void setN(int n) {
+            this.n = n;
+        }
+
+        public int getN() {
+            return n;
+        }
+
+        public void setLeaf(boolean set) {
+            if (set) {
+                leaf = 'L';
+            } else {
+                leaf = 'I';
+            }
+        }
+
+        public boolean isLeaf() {
+            return leaf == 'L';
+        }
+
+        public void setRoot(boolean set) {
+            if (set) {
+                root = 'R';
+            } else {
+                root = 'N';
+            }
+        }
+
+        public boolean isRoot() {
+            return root == 'R';
+        }
+
+        public int nchildren() {
+            int count = 0;
+            for(int i = 0; i < children.length; i++) {
+                if(children[i] != -1L)
+                    count++;
+            }
+            return count;
+        }
+    }
+
+    public void printr(BTreeNode r, int sp) {
+
+        String ss = "";
+        for (int s = 0; s < sp; s++) {
+            ss = ss.concat(" ");
+        }
+
+        System.err.printf("%s(address = %d, root = %c, leaf = %c, n = %d, nc = %d) |", ss, r.address, r.root, r.leaf, r.n, r.nchildren());
+        for (int i = 0; i < r.n-1; i++) {
+            System.err.printf("%d,", r.keys[i]);
+        }
+        System.err.printf("%d", r.keys[r.n-1]);
+        System.err.print("| {");
+        for(long children : r.children) {
+            System.err.printf("%d,", children);
+        }
+        System.err.println("}");
+        for (long children : r.children) {
+            if (children != -1) {
+                printr(disk_read(children, new BTreeNode()), sp + 4);
+            }
+        }
+
+    }
+
+    public void print() {
+        System.err.println("number of nodes = " + num_nodes);
+        if(num_nodes > 0)
+            printr(root, 0);
+    }
+
+    // Bytes in one node.  For compact nodes, the most that 2t-1 keys can
+    // take, see write_compact; they hold more when their keys are close
+    // together and their freqs small.
+    static long node_bytes(int k, int t, int flags) {
+        long T = (long)t;
+        if((flags & BPLUS) != 0) {
+            // the internal nodes, leaves fill the rest of the slot
+            return 8L + 8L*(2L*T-1L) + 8L*(2L*T);
+        }
+        if((flags & COMPACT) != 0) {
+            // deltas as wide as keys, 5 byte freqs and 8 bytes kept free
+            return compact_bytes(k, (int)(2L*T-1L), false, key_bytes(k), 5L*(2L*T-1L)) + 8L;
+        }
+        return 2L +            // char leaf = 2 bytes
+               2L +            // char root = 2 bytes
+               4L +            // int n = number of keys currently stored in node
+               12L*(2L*T-1L) + // array of keys = 8bytes*(2t-1)
+               8L*(2L*T);      // array of children pointers = 8bytes*(2t)
+    }
+
+    // Bytes of a node slot.  A page holds as many nodes as fit in it, and
+    // the page is divided evenly among them, so no node crosses a page
+    // boundary and each page wastes less than one slot; bigger nodes get
+    // whole pages.  Version 1 files (page_bytes 0) pack the nodes back to
+    // back.
+    static long slot_bytes(int k, int t, int flags, int page_bytes) {
+        long bytes = node_bytes(k, t, flags);
+        if (page_bytes == 0) {
+            return bytes;
+        }
+        if (bytes <= page_bytes) {
+            return page_bytes / (page_bytes / bytes);
+        }
+        return (bytes + page_bytes - 1) / page_bytes * page_bytes;
+    }
+
+    // Where the node slots of a file are: from meta_bytes on, per slots at
+    // the start of every page and the few bytes left over in the page
+    // unused.  A node bigger than a page, or a node of a version 1 file, is
+    // a page of its own.
+    static final class Slots {
+        final long meta_bytes;  // slot 0 starts here
+        final long bytes;       // bytes of a slot
+        final long page;        // bytes of a page
+        final long per;         // slots per page
+
+        Slots(long bytes, int page_bytes, long meta_bytes) {
+            this.meta_bytes = meta_bytes;
+            this.bytes = bytes;
+            this.page = (bytes > page_bytes) ? bytes : page_bytes;
+            this.per = page / bytes;
+        }
+
+        long address(long slot) {
+            return meta_bytes + (slot / per)*page + (slot % per)*bytes;
+        }
+
+        // the slot at address
+        long index(long address) {
+            long a = address - meta_bytes;
+            return (a / page)*per + Math.min(per, (a % page) / bytes);
+        }
+
+        // whole slots in a file of file_bytes
+        long count(long file_bytes) {
+            return index(file_bytes);
+        }
+    }
+
+    // largest degree whose nodes fit in block bytes
+    static int max_degree(int k, int flags, long block) {
+        int t = 2;
+        while(node_bytes(k, t + 1, flags) <= block) {
+            t++;
+        }
+        return t;
+    }
+
+    // bytes in a whole key of length k, 2 bits per base
+    static int key_bytes(int k) {
+        return (2*k + 7)/8;
+    }
+
+    // Bytes of a compact node of n keys with deltas of w bytes and freqs
+    // taking vbytes: the fixed fields, the child slots of an internal
+    // node, the first key and the deltas, see write_compact.
+    static long compact_bytes(int k, int n, boolean leaf, int w, long vbytes) {
+        return 9L + (leaf ? 0L : 4L*(n + 1)) + ((n > 0) ? key_bytes(k) + (long)w*(n - 1) : 0L) + vbytes;
+    }
+
+    // bytes of the delta d >= 0, at least 1
+    static int delta_bytes(long d) {
+        return Math.max(1, (64 - Long.numberOfLeadingZeros(d) + 7)/8);
+    }
+
+    // bytes of f >= 0 as a varint, 7 bits to a byte
+    static int varint_bytes(int f) {
+        return (f < (1 << 7)) ? 1 : (f < (1 << 14)) ? 2 : (f < (1 << 21)) ? 3 : (f < (1 << 28)) ? 4 : 5;
+    }
+
+    // True if x can take one more key in [lo, hi], with a child for it if
+    // x is internal, or one of its freqs can grow, and still fit its slot.
+    // A fixed node has room below 2t-1 keys.  The keys of a compact node
+    // are deltas from its first key, so a key outside its range widens all
+    // of them; lo and hi bound where the new key can fall.
+    private boolean room(BTreeNode x, long lo, long hi) {
+        if((flags & COMPACT) == 0) {
+            return x.n < 2*t-1;
+        }
+        if(x.n >= max_keys) {
+            return false;
+        }
+        long first = (x.n > 0) ? Math.min(x.keys[0], lo) : lo;
+        long last = (x.n > 0) ? Math.max(x.keys[x.n - 1], hi) : hi;
+        long vbytes = 5; // the new freq, or 4 more bytes of a grown one
+        for(int i = 0; i < x.n; i++) {
+            vbytes += varint_bytes(x.freqs[i]);
+        }
+        return compact_bytes(k, x.n + 1, x.isLeaf(), delta_bytes(last - first), vbytes) <= compact_limit;
+    }
+
+    public long next_address() {
+        long adr = next_address;
+        next_address = slots.address(slots.index(adr) + 1);
+        return adr;
+    }
+
+    // a new empty leaf with the next free address in the file
+    public BTreeNode new_node() {
+        BTreeNode x = new BTreeNode();
+        x.address = next_address();
+        return x;
+    }
+
+    private int init_metadata(String filename, RandomAccessFile file, int k, int t) throws IOException {
+        int mode = 0;
+
+        // check if file exists
+        if (file.length() > 4) {
+            System.err.println("Reading block file " + filename + ".  k = " + k + ", t = " + t);
+            Header h = Header.read(filename, file);
+            h.check(filename, k, t, flags);
+            this.rpos = h.rpos;
+            this.flags = h.flags;
+            this.page_bytes = h.page_bytes;
+            this.meta_bytes = h.meta_bytes;
+            this.slots = h.slots();
+
+            mode = 1;
+        } else {
+            System.err.println("creating block file " + filename + ".  k = " + k + ", t = " + t);
+            write_header(file, k, t, flags, page_bytes);
+
+            this.rpos = page_bytes;
+            this.meta_bytes = page_bytes;
+            this.slots = new Slots(slot_bytes(k, t, flags, page_bytes), page_bytes, meta_bytes);
+            this.num_nodes = 0;
+
+            mode = 0;
+        }
+        return mode;
+    }
+
+    // The header of an existing btree file.
+    static final class Header {
+        int magic;
+        int k;
+        int t;
+        long rpos;       // position of root node in file
+        int flags;       // 0 in version 1 files
+        int page_bytes;  // 0 in version 1 files
+        long meta_bytes; // header size, nodes start here
+
+        // reads the header of filename, exits if it isn't a btree file
+        static Header read(String filename, RandomAccessFile file) throws IOException {
+            Header h = new Header();
+            file.seek(0L);
+            h.magic = (file.length() >= META_BYTES_V1) ? file.readInt() : 0;
+            if (h.magic == MAGIC_V1) {
+                h.meta_bytes = META_BYTES_V1;
+            }
+            else if (h.magic == MAGIC && file.length() >= META_BYTES) {
+                file.seek(24);
+                h.page_bytes = file.readInt();
+                h.meta_bytes = h.page_bytes;
+                file.seek(4);
+            }
+            if (h.meta_bytes == 0 || (h.page_bytes != 0 && (h.page_bytes < META_BYTES || Integer.bitCount(h.page_bytes) != 1))) {
+                System.err.println(filename + " is not a btree file. Exiting");
+                System.exit(1);
+            }
+            h.k = file.readInt();
+            h.t = file.readInt();
+            h.rpos = file.readLong();
+            if (h.magic == MAGIC) {
+                h.flags = file.readInt();
+            }
+            return h;
+        }
+
+        // the node slots of the file
+        Slots slots() {
+            return new Slots(slot_bytes(k, t, flags, page_bytes), page_bytes, meta_bytes);
+        }
+
+        static Header read(String filename) {
+            Header h = null;
+            try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+                h = read(filename, file);
+            } catch (FileNotFoundException ex) {
+                System.err.println("Can't open btree file " + filename + ". Exiting");
+                System.exit(1);
+            } catch (IOException ex) {
+                System.err.println("Can't read btree file " + filename + ". Exiting");
+                System.exit(1);
+            }
+            return h;
+        }
+
+        // exits unless the file holds k-mers of length k in a tree of degree
+        // t, canonical or not as flags asks.  The node encoding is whatever
+        // the file was built with.
+        void check(String filename, int k, int t, int flags) {
+            if(this.k != k) {
+                System.err.println("k in file is wrong = " + this.k);
+                System.exit(1);
+            }
+            if(this.t != t) {
+                System.err.println("tin file is wrong = " + this.t);
+                System.exit(1);
+            }
+            if((this.flags & CANONICAL) != (flags & CANONICAL)) {
+                if((this.flags & CANONICAL) != 0) {
+                    System.err.println(filename + " holds canonical k-mers, use --canonical");
+                }
+                else {
+                    System.err.println(filename + " does not hold canonical k-mers, drop --canonical");
+                }
+                System.exit(1);
+            }
+        }
+    }
+
+    // Writes a version 2 header page to an empty file.  The root pointer is
+    // set to the first node slot.
+    static void write_header(RandomAccessFile file, int k, int t, int flags, int page_bytes) throws IOException {
+        file.setLength(0L); // clear out any contents if this file is existing
+        // the rest of the header page is zeros
+        file.setLength(page_bytes);
+
+        // field 0:  password = 1235, 4 bytes.  used to signify file is valid.
+        file.seek(0);
+        file.writeInt(MAGIC);
+
+        // field 1:  k, sequence_length, 4 bytes
+        file.seek(4);
+        file.writeInt(k);
+
+        // field 2:  t, 4 bytes
+        file.seek(8);
+        file.writeInt(t);
+
+        // field 3:  ptr to root node, 8 bytes
+        file.seek(12);
+        file.writeLong(page_bytes);
+
+        // field 4:  flags, 4 bytes
+        file.seek(20);
+        file.writeInt(flags);
+
+        // field 5:  page size, 4 bytes
+        file.seek(24);
+        file.writeInt(page_bytes);
+    }
+
+    private void update_rpos() {
+        try {
+            file.seek(12);
+            file.writeLong(this.root.address);
+        } catch (IOException ex) {
+            System.err.println("Can't access file " + file);
+            System.exit(1);
+        }
+    }
+
+    // The node returned is reused by the next search or insert, so read
+    // what is needed from it (keys[search_idx], freqs[search_idx]) first.
+    public BTreeNode search(long key) {
+        if (stats == null) {
+            return rsearch(this.root, key);
+        }
+        long start = System.nanoTime();
+        BTreeNode x = rsearch(this.root, key);
+        stats.search.record(System.nanoTime() - start);
+        return x;
+    }
+
+    public BTreeNode rsearch(BTreeNode x, long key) {
+        int next = 0;
+        while(true) {
+            int i = x.find(key);
+            if (i < x.n && x.keys[i] == key) {
+                x.search_idx = i;
+                return x;
+            }
+            if (x.isLeaf()) {
+                return null;
+            }
+            if (x.children[i] == -1L) {
+                System.err.println("null child encountered during search!");
+                System.exit(1);
+            }
+            // alternate between two scratch nodes, x may be one of them
+            BTreeNode c = scratch[next];
+            next ^= 1;
+            x = disk_read(x.children[i], c);
+        }
+    }
+
+    // Looks up keys[0..n-1], which must be in ascending order, in one walk
+    // of the tree and sets freqs[i] to the count of keys[i], or 0 if it is
+    // not in the tree.  Every node on the paths of the queries is read once
+    // and the queries that reach it are split among its children.
+    public void search_batch(long[] keys, int n, int[] freqs) {
+        Arrays.fill(freqs, 0, n, 0);
+        if (n > 0) {
+            search_batch_r(root, keys, 0, n, freqs, 0);
+        }
+    }
+
+    private void search_batch_r(BTreeNode x, long[] keys, int lo, int hi, int[] freqs, int depth) {
+        int q = lo;
+        while (q < hi) {
+            int i = x.find(keys[q]);
+            if (i < x.n && x.keys[i] == keys[q]) {
+                freqs[q++] = x.freqs[i];
+                continue;
+            }
+            // keys[q..] below x.keys[i] all go down to child i
+            int start = q;
+            if (i < x.n) {
+                while (q < hi && keys[q] < x.keys[i]) {
+                    q++;
+                }
+            }
+            else {
+                q = hi;
+            }
+            if (!x.isLeaf()) {
+                BTreeNode c = disk_read(x.children[i], level(depth + 1));
+                search_batch_r(c, keys, start, q, freqs, depth + 1);
+            }
+        }
+    }
+
+    // Calls v.visit(key, freq) for every key in [lo, hi], in ascending
+    // order, until visit returns false.  The walk descends once to lo and
+    // then goes through the tree in order, reading each node of the range
+    // once, so a prefix of a k-mer (a contiguous key range) costs one
+    // descent plus the nodes that hold its keys.
+    public void range(long lo, long hi, KeyVisitor v) {
+        if (lo <= hi) {
+            range_r(root, lo, hi, v, 0);
+        }
+    }
+
+    private boolean range_r(BTreeNode x, long lo, long hi, KeyVisitor v, int depth) {
+        for (int j = x.find(lo); j <= x.n; j++) {
+            if (!x.isLeaf()) {
+                BTreeNode c = disk_read(x.children[j], level(depth + 1));
+                if (!range_r(c, lo, hi, v, depth + 1)) {
+                    return false;
+                }
+            }
+            if (j == x.n) {
+                break;
+            }
+            if (x.keys[j] > hi || !v.visit(x.keys[j], x.freqs[j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private BTreeNode level(int depth) {
+        if (depth >= levels.length) {
+            levels = Arrays.copyOf(levels, depth + 1);
+            levels[depth] = new BTreeNode();
+        }
+        return levels[depth];
+    }
+
+    // The concurrent read path.  find and find_batch may be called from any
+    // number of threads at once: nodes are read with positional reads into
+    // buffers of the calling thread and nothing shared is written, the node
+    // cache included.  They read the file, so the tree must not be changed
+    // while they run, and a tree that was changed must be flush()ed first.
+
+    // key and its freq, or null if key is not in the tree
+    public Hit find(long key) {
+        if (stats == null) {
+            return find_r(key);
+        }
+        long start = System.nanoTime();
+        Hit h = find_r(key);
+        stats.search.record(System.nanoTime() - start);
+        return h;
+    }
+
+    private Hit find_r(long key) {
+        NodeView x = read_view(rpos, reader(0));
+        while (true) {
+            int i = x.find(key);
+            if (i < x.n() && x.key(i) == key) {
+                return new Hit(key, x.freq(i));
+            }
+            if (x.isLeaf()) {
+                return null;
+            }
+            x = read_view(x.child(i), x);
+        }
+    }
+
+    // search_batch on the concurrent read path: keys[0..n-1] ascending,
+    // freqs[i] = count of keys[i] or 0
+    public void find_batch(long[] keys, int n, int[] freqs) {
+        Arrays.fill(freqs, 0, n, 0);
+        if (n > 0) {
+            find_batch_r(read_view(rpos, reader(0)), keys, 0, n, freqs, 0);
+        }
+    }
+
+    private void find_batch_r(NodeView x, long[] keys, int lo, int hi, int[] freqs, int depth) {
+        int q = lo;
+        while (q < hi) {
+            int i = x.find(keys[q]);
+            if (i < x.n() && x.key(i) == keys[q]) {
+                freqs[q++] = x.freq(i);
+                continue;
+            }
+            int start = q;
+            if (i < x.n()) {
+                long ki = x.key(i);
+                while (q < hi && keys[q] < ki) {
+                    q++;
+                }
+            }
+            else {
+                q = hi;
+            }
+            if (!x.isLeaf()) {
+                NodeView c = read_view(x.child(i), reader(depth + 1));
+                find_batch_r(c, keys, start, q, freqs, depth + 1);
+            }
+        }
+    }
+
+    // the calling thread's view for a tree level
+    private NodeView reader(int depth) {
+        NodeView[] v = readers.get();
+        if (depth >= v.length) {
+            v = Arrays.copyOf(v, depth + 1);
+            v[depth] = NodeView.create(k, t, flags, slots).set(ByteBuffer.allocateDirect((int)NODE_BYTES), 0, -1L);
+            readers.set(v);
+        }
+        return v[depth];
+    }
+
+    // one positional read of the node at address into the buffer of v
+    private NodeView read_view(long address, NodeView v) {
+        BTreeEvents.DiskRead event = new BTreeEvents.DiskRead();
+        event.begin();
+        long start = (stats != null) ? System.nanoTime() : 0L;
+        ByteBuffer buf = v.buf;
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, address + buf.position()) < 0) {
+                    throw new IOException("end of file");
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("IOException in find at address " + address + ".  Exiting.");
+            System.exit(1);
+        }
+        if (stats != null) {
+            stats.read(NODE_BYTES, System.nanoTime() - start);
+        }
+        if (event.shouldCommit()) {
+            event.address = address;
+            event.bytes = NODE_BYTES;
+            event.commit();
+        }
+        return v.set(buf, 0, address);
+    }
+
+    // a scratch node that is neither a nor b
+    private BTreeNode spare(BTreeNode a, BTreeNode b) {
+        for (BTreeNode s : scratch) {
+            if (s != a && s != b) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    // y holds the full child x.children[i]; its upper half is moved into z,
+    // which receives a new address, and its median key moves up into x.  A
+    // full fixed node has 2t-1 keys and keeps t-1; a compact node is split
+    // at its middle key, however many keys filled its slot.
+    private void split_child(BTreeNode x, int i, BTreeNode y, BTreeNode z) {
+        BTreeEvents.SplitChild event = new BTreeEvents.SplitChild();
+        event.begin();
+        long start = (stats != null) ? System.nanoTime() : 0L;
+        int m = y.n / 2;
+        z.reset();
+        z.address = next_address();
+        z.setLeaf(y.isLeaf());
+        z.setN(y.n - m - 1);
+        System.arraycopy(y.keys, m + 1, z.keys, 0, z.n);
+        System.arraycopy(y.freqs, m + 1, z.freqs, 0, z.n);
+        if (!y.isLeaf()) {
+            for (int j = 0; j <= z.n; j++) {
+                z.children[j] = y.children[j + m + 1];
+                y.children[j + m + 1] = -1L;
+            }
+        }
+        long median = y.keys[m];
+        int median_freq = y.freqs[m];
+        y.setN(m);
+        for (int j = x.getN(); j >= i + 1; j--) {
+            x.children[j + 1] = x.children[j];
+        }
+        x.children[i + 1] = z.address;
+        for (int j = x.getN() - 1; j >= i; j--) {
+            x.keys[j + 1] = x.keys[j];
+            x.freqs[j + 1] = x.freqs[j];
+        }
+        x.keys[i] = median;
+        x.freqs[i] = median_freq;
+        x.setN(x.getN() + 1);
+        disk_write(y);
+        disk_write(z);
+        disk_write(x);
+        if (stats != null) {
+            stats.split(System.nanoTime() - start);
+        }
+        if (event.shouldCommit()) {
+            event.address = y.address;
+            event.sibling = z.address;
+            event.leaf = y.isLeaf();
+            event.commit();
+        }
+    }
+
+    public void insert(long key) {
+        insert(key, 1);
+    }
+
+    // Adds count to the freq of key, or inserts key with freq = count if it
+    // is not in the tree yet.  The tree is descended only once: full nodes
+    // are split on the way down, so the key can be placed wherever the
+    // descent ends without backing up.  Returns true if key was new.
+    public boolean insert(long key, int count) {
+        long start = (stats != null) ? System.nanoTime() : 0L;
+        int r;
+        do {
+            BTreeNode x = this.root;
+            boolean leaf = x.isLeaf();
+            if (!room(x, leaf ? key : 0L, leaf ? key : max_key)) {
+                // the old root instance becomes the left half of the split
+                BTreeNode s = new_node();
+                x.setRoot(false);
+                s.setRoot(true);
+                this.root = s;
+                this.rpos = s.address;
+                s.setLeaf(false);
+                s.setN(0);
+                s.children[0] = x.address;
+                split_child(s, 0, x, spare(null, null));
+                update_rpos();
+            }
+            r = insert_nonfull(this.root, key, count);
+        } while (r == RETRY);
+        boolean added = r == ADDED;
+        if(added) {
+            num_nodes++;
+        }
+        if(stats != null) {
+            stats.insert.record(System.nanoTime() - start);
+        }
+        return added;
+    }
+
+    static final int UPDATED = 0; // insert_nonfull: an existing freq was updated
+    static final int ADDED = 1;   // key was new
+    static final int RETRY = 2;   // a split left no room for key, descend again
+
+    // Places key below x, which has room for it.  lo and hi bound the keys
+    // of the subtree being descended, which is what a compact node needs
+    // to know to tell if it has room, see room.  Half of a split compact
+    // node can still be too full when key widens its deltas: the descent is
+    // then given up and the insert starts over at the root, which splits
+    // the half once more.
+    private int insert_nonfull(BTreeNode x, long key, int count) {
+        long lo = 0L;
+        long hi = max_key;
+        while(true) {
+            int i = x.find(key);
+            if (i < x.n && x.keys[i] == key) {
+                x.freqs[i] = (int)Math.min((long)x.freqs[i] + count, Integer.MAX_VALUE);
+                disk_write(x);
+                return UPDATED;
+            }
+            if (x.isLeaf()) {
+                for (int j = x.n - 1; j >= i; j--) {
+                    x.keys[j+1] = x.keys[j];
+                    x.freqs[j+1] = x.freqs[j];
+                }
+                x.keys[i] = key;
+                x.freqs[i] = count;
+                x.n++;
+                disk_write(x);
+                return ADDED;
+            }
+            if (i > 0) {
+                lo = x.keys[i - 1] + 1;
+            }
+            if (i < x.n) {
+                hi = x.keys[i] - 1;
+            }
+            BTreeNode xci = disk_read(x.children[i], spare(x, null));
+            boolean leaf = xci.isLeaf();
+            if (!room(xci, leaf ? key : lo, leaf ? key : hi)) {
+                BTreeNode z = spare(x, xci);
+                split_child(x, i, xci, z);
+                // the median of the child moved up into x.keys[i]
+                if (x.keys[i] == key) {
+                    x.freqs[i] = (int)Math.min((long)x.freqs[i] + count, Integer.MAX_VALUE);
+                    disk_write(x);
+                    return UPDATED;
+                }
+                if (x.keys[i] < key) {
+                    xci = z;
+                    lo = x.keys[i] + 1;
+                }
+                else {
+                    hi = x.keys[i] - 1;
+                }
+                if (!room(xci, leaf ? key : lo, leaf ? key : hi)) {
+                    return RETRY;
+                }
+            }
+            x = xci;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // bulk loading
+    ////////////////////////////////////////////////////////////////////////////
+
+    public BulkLoader bulk_loader(double fill) {
+        return new BulkLoader(fill);
+    }
+
+    // Builds the tree bottom-up from (key, freq) pairs given in strictly
+    // increasing key order.  Nodes are packed to the fill factor and written
+    // once, left to right, so the file is produced in a single sequential
+    // pass instead of one search and split per key.  Only the node being
+    // filled and the last closed node of each level are held in memory.
+    // Compact nodes are packed by their encoded bytes rather than by keys.
+    public class BulkLoader implements Loader {
+        ArrayList<BTreeNode> cur = new ArrayList<>();  // node being filled, per level (0 = leaves)
+        ArrayList<BTreeNode> prev = new ArrayList<>(); // last closed node, per level, not yet written
+        int fill;                                       // keys per node
+        boolean compact;
+        long fill_bytes;                                // bytes per compact node
+        long[] vbytes = new long[1];                    // varint bytes of the freqs in cur, per level
+        int min;                                        // the fewest keys of a node
+        long last_key;
+        long count;
+
+        BulkLoader(double fill) {
+            if(num_nodes != 0 || root.getN() != 0 || next_address != slots.address(1)) {
+                System.err.println("bulk load needs a new, empty btree file. Exiting");
+                System.exit(1);
+            }
+            this.fill = (int)Math.round(fill * (2*t-1));
+            this.fill = Math.max(Math.max(t-1, 1), Math.min(2*t-1, this.fill));
+            // 4 bytes are kept for the freq of a separator that finish moves
+            compact = (flags & COMPACT) != 0;
+            fill_bytes = Math.round(fill * (compact_limit - 4));
+            min = compact ? 1 : t-1;
+
+            // the empty root written by the constructor is replaced, drop
+            // it from the cache so it can't be written back over a new node
+            if(cache != null) {
+                cache.clear();
+            }
+            next_address = rpos;
+            cur.add(new_node(true));
+            prev.add(null);
+        }
+
+        public void add(long key, int freq) {
+            if(count > 0 && key <= last_key) {
+                System.err.println("bulk load keys out of order: " + key + " after " + last_key + ". Exiting");
+                System.exit(1);
+            }
+            last_key = key;
+            count++;
+            push_key(0, key, freq);
+        }
+
+        private BTreeNode new_node(boolean leaf) {
+            // addresses are handed out when a node is attached to its parent,
+            // so nodes dropped while finishing never take a slot in the file
+            BTreeNode x = new BTreeNode();
+            x.setLeaf(leaf);
+            return x;
+        }
+
+        // true if key fits into x, the node being filled at level
+        private boolean fits(BTreeNode x, int level, long key, int freq) {
+            if(!compact) {
+                return x.n < fill;
+            }
+            if(x.n == 0) {
+                return true;
+            }
+            return x.n < max_keys &&
+                   compact_bytes(k, x.n + 1, x.isLeaf(), delta_bytes(key - x.keys[0]),
+                                 vbytes[level] + varint_bytes(freq)) <= fill_bytes;
+        }
+
+        private void push_key(int level, long key, int freq) {
+            BTreeNode x = cur.get(level);
+            if(fits(x, level, key, freq)) {
+                x.keys[x.n] = key;
+                x.freqs[x.n] = freq;
+                x.n++;
+                vbytes[level] += varint_bytes(freq);
+                return;
+            }
+            // x is packed: close it and send the key up as its right separator
+            if(level == cur.size() - 1) {
+                cur.add(new_node(false));
+                prev.add(null);
+                vbytes = Arrays.copyOf(vbytes, cur.size());
+            }
+            vbytes[level] = 0;
+            attach(level, x);
+            BTreeNode y = prev.get(level);
+            if(y != null) {
+                // y is final now, write it and reuse it for the next node
+                write_node(y);
+                y.reset();
+                y.setLeaf(level == 0);
+            }
+            else {
+                y = new_node(level == 0);
+            }
+            prev.set(level, x);
+            cur.set(level, y);
+            push_key(level + 1, key, freq);
+        }
+
+        private void attach(int level, BTreeNode x) {
+            BTreeNode p = cur.get(level + 1);
+            x.address = next_address();
+            p.children[p.nchildren()] = x.address;
+        }
+
+        public void finish() {
+            int top = cur.size() - 1;
+            for(int level = 0; level < top; level++) {
+                BTreeNode x = cur.get(level);
+                BTreeNode p = prev.get(level);
+                boolean keep = level == 0 || x.nchildren() > 0;
+                if(keep && x.n < min) {
+                    // x is the underfull last node of its level.  Its left
+                    // sibling p is full; the separator between them is the
+                    // last key of the lowest level above that has keys.
+                    int j = level + 1;
+                    while(cur.get(j).n == 0) {
+                        j++;
+                    }
+                    BTreeNode s = cur.get(j);
+                    if(p.n + x.n >= 2*min) {
+                        rotate(p, s, x, (p.n - x.n)/2);
+                    }
+                    else {
+                        merge(p, s, x);
+                        keep = false;
+                    }
+                }
+                if(keep) {
+                    attach(level, x);
+                }
+                write_node(p);
+                if(keep) {
+                    write_node(x);
+                }
+            }
+
+            BTreeNode r = cur.get(top);
+            if(top > 0 && r.n == 0) {
+                // the top level lost its only key, its single child is the root
+                r = disk_read(r.children[0], new BTreeNode());
+            }
+            else {
+                r.address = next_address();
+            }
+            r.setRoot(true);
+            write_node(r);
+            root = r;
+            rpos = r.address;
+            update_rpos();
+            num_nodes = count;
+        }
+
+        private void rotate(BTreeNode p, BTreeNode s, BTreeNode x, int r) {
+            // move r keys from the end of p through the separator s.keys[s.n-1]
+            // to the front of x, along with the children between them
+            System.arraycopy(x.keys, 0, x.keys, r, x.n);
+            System.arraycopy(x.freqs, 0, x.freqs, r, x.n);
+            if(!x.isLeaf()) {
+                System.arraycopy(x.children, 0, x.children, r, x.n + 1);
+            }
+            int from = p.n - r + 1;
+            System.arraycopy(p.keys, from, x.keys, 0, r - 1);
+            System.arraycopy(p.freqs, from, x.freqs, 0, r - 1);
+            x.keys[r - 1] = s.keys[s.n - 1];
+            x.freqs[r - 1] = s.freqs[s.n - 1];
+            if(!x.isLeaf()) {
+                for(int i = 0; i < r; i++) {
+                    x.children[i] = p.children[from + i];
+                    p.children[from + i] = -1L;
+                }
+            }
+            s.keys[s.n - 1] = p.keys[p.n - r];
+            s.freqs[s.n - 1] = p.freqs[p.n - r];
+            x.n += r;
+            p.n -= r;
+        }
+
+        private void merge(BTreeNode p, BTreeNode s, BTreeNode x) {
+            // fold the separator and all of x into p, x is dropped
+            p.keys[p.n] = s.keys[s.n - 1];
+            p.freqs[p.n] = s.freqs[s.n - 1];
+            s.n--;
+            System.arraycopy(x.keys, 0, p.keys, p.n + 1, x.n);
+            System.arraycopy(x.freqs, 0, p.freqs, p.n + 1, x.n);
+            if(!p.isLeaf()) {
+                System.arraycopy(x.children, 0, p.children, p.n + 1, x.n + 1);
+            }
+            p.n += x.n + 1;
+        }
+    }
+
+    // reads the node at address into x and returns x
+    BTreeNode disk_read(long address, BTreeNode x) {
+
+        if(cache != null) {
+            int slot = cache.find(address);
+            if(slot >= 0) {
+                if(stats != null) {
+                    stats.cache_hits.increment();
+                }
+                x.copy_from(frames[slot]);
+                return x;
+            }
+            if(stats != null) {
+                stats.cache_misses.increment();
+            }
+        }
+
+        BTreeEvents.DiskRead event = new BTreeEvents.DiskRead();
+        event.begin();
+        long start = (stats != null) ? System.nanoTime() : 0L;
+        x.address = address;
+        x.search_idx = -1;
+
+        // one positional read of the whole node
+        ByteBuffer buf = node_buf;
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, address + buf.position()) < 0) {
+                    throw new IOException("end of file");
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("IOException in disk_read at address " + address + ".  Exiting.");
+            System.exit(1);
+        }
+        if(stats != null) {
+            stats.read(NODE_BYTES, System.nanoTime() - start);
+        }
+        if(event.shouldCommit()) {
+            event.address = address;
+            event.bytes = NODE_BYTES;
+            event.commit();
+        }
+
+        if((flags & COMPACT) != 0) {
+            read_compact(buf, x);
+        }
+        else {
+            read_fixed(buf, x);
+        }
+        if(cache != null) {
+            int slot = evict();
+            frames[slot].copy_from(x);
+            frames[slot].dirty = false;
+            cache.assign(slot, address);
+        }
+        return x;
+    }
+
+    private void read_fixed(ByteBuffer buf, BTreeNode x) {
+        // address + 0:  leaf
+        x.setLeaf(buf.getChar(0) == 'L');
+
+        // address + 2:  root
+        x.setRoot(buf.getChar(2) == 'R');
+
+        // address + 4:  n, subseq length
+        int rn = buf.getInt(4);
+        x.setN(rn);
+
+        // address + 8:  keys
+        int p = 8;
+        for (int j = 0; j < rn; j++) { // only decode n keys
+            x.keys[j] = buf.getLong(p);
+            x.freqs[j] = buf.getInt(p + 8);
+            p += 12;
+        }
+
+        // address + 8 + 8*(2t-1) + 4*(2t-1):  children pointers
+        int NKEYS = 2*t-1;
+        int NCHILDREN = 2*t;
+        p = 8 + 12*NKEYS;
+        for (int j = 0; j < NCHILDREN; j++) {
+            x.children[j] = buf.getLong(p);
+            p += 8;
+        }
+    }
+
+    private void read_compact(ByteBuffer buf, BTreeNode x) {
+        x.setLeaf(buf.getChar(0) == 'L');
+        x.setRoot(buf.getChar(2) == 'R');
+        int rn = buf.getInt(4);
+        // children past n+1 are -1 already, see copy_from
+        int used = Math.min(x.n + 1, x.children.length);
+        x.setN(rn);
+        int w = buf.get(8);
+        int p = 9;
+        Arrays.fill(x.children, 0, used, -1L);
+        if (!x.isLeaf()) {
+            for (int j = 0; j <= rn; j++) {
+                int slot = buf.getInt(p);
+                x.children[j] = (slot < 0) ? -1L : slots.address(slot);
+                p += 4;
+            }
+        }
+        if (rn == 0) {
+            return;
+        }
+        int kw = key_bytes(k);
+        long first = get_bytes(buf, p, kw);
+        p += kw;
+        x.keys[0] = first;
+        for (int j = 1; j < rn; j++) {
+            x.keys[j] = first + get_bytes(buf, p, w);
+            p += w;
+        }
+        for (int j = 0; j < rn; j++) {
+            int f = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get(p++);
+                f |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            x.freqs[j] = f;
+        }
+    }
+
+    // the w byte big-endian number at p, w in 1..8; the 8 bytes from p
+    // must be in buf
+    static long get_bytes(ByteBuffer buf, int p, int w) {
+        return buf.getLong(p) >>> (64 - 8*w);
+    }
+
+    void disk_write(BTreeNode x) {
+        if(cache != null) {
+            // defer the write until x is evicted or the tree is closed
+            int slot = cache.find(x.address);
+            if(slot < 0) {
+                slot = evict();
+                cache.assign(slot, x.address);
+            }
+            frames[slot].copy_from(x);
+            frames[slot].dirty = true;
+            return;
+        }
+        write_node(x);
+    }
+
+    // a cache slot that can be reused, its node is written back if dirty
+    private int evict() {
+        int slot = cache.victim();
+        if(cache.address(slot) != -1L && frames[slot].dirty) {
+            write_node(frames[slot]);
+        }
+        return slot;
+    }
+
+    private void write_node(BTreeNode x) {
+        BTreeEvents.DiskWrite event = new BTreeEvents.DiskWrite();
+        event.begin();
+        long start = (stats != null) ? System.nanoTime() : 0L;
+        ByteBuffer buf = node_buf;
+        if((flags & COMPACT) != 0) {
+            write_compact(x, buf);
+        }
+        else {
+            write_fixed(x, buf);
+        }
+
+        // one positional write of the whole node
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                channel.write(buf, x.address + buf.position());
+            }
+        } catch (IOException ex) {
+            System.err.println("IOException in disk_write at address " + x.address + ".  Exiting.");
+            System.exit(1);
+        }
+        x.dirty = false;
+        if(stats != null) {
+            stats.write(NODE_BYTES, System.nanoTime() - start);
+        }
+        if(event.shouldCommit()) {
+            event.address = x.address;
+            event.bytes = NODE_BYTES;
+            event.commit();
+        }
+    }
+
+    private void write_fixed(BTreeNode x, ByteBuffer buf) {
+        // address + 0:  leaf
+        buf.putChar(0, x.leaf);
+
+        // address + 2:  root
+        buf.putChar(2, x.root);
+
+        // address + 4:  n
+        buf.putInt(4, x.n);
+
+        // address + 8:  keys
+        int NKEYS = 2*t-1;
+        int p = 8;
+        for (int i = 0; i < NKEYS; i++) {
+            if (i < x.n) {
+                buf.putLong(p, x.keys[i]);
+                buf.putInt(p + 8, x.freqs[i]);
+            } else {
+                buf.putLong(p, 0xadde_eeee_adde_aaaaL);
+                buf.putInt(p + 8, 0xdead_beef);
+            }
+            p += 12;
+        }
+
+        // address + 8 + NKEYS*NODE_SIZE
+        int NCHILDREN = 2*t;
+        for (int i = 0; i < NCHILDREN; i++) {
+            buf.putLong(p, x.children[i]);
+            p += 8;
+        }
+    }
+
+    // The compact encoding (COMPACT), chosen when the file is created:
+    //   +0 char leaf, +2 char root, +4 int n, +8 byte w,
+    //   +9 n+1 x int child slot, see Slots, or -1, in internal nodes only,
+    //   then the first key in key_bytes(k) bytes, the other n-1 keys as
+    //   their w byte difference from the first, and the n freqs as varints,
+    //   7 bits to a byte, low bits first.
+    // Keys of one node are close together, more so the deeper it is, so the
+    // deltas take a byte or two where a long takes 8; most freqs take one
+    // byte.  A node holds as many keys as fit in its slot (see room), so
+    // the slot size set by t only bounds the worst case.  The keys still
+    // have fixed offsets for NodeView to binary search in place.  The last
+    // 8 bytes of the slot are never used, so any key can be read with one
+    // getLong.
+    private void write_compact(BTreeNode x, ByteBuffer buf) {
+        buf.putChar(0, x.leaf);
+        buf.putChar(2, x.root);
+        buf.putInt(4, x.n);
+        int w = (x.n > 1) ? delta_bytes(x.keys[x.n - 1] - x.keys[0]) : 1;
+        buf.put(8, (byte)w);
+        int p = 9;
+        if (!x.isLeaf()) {
+            for (int i = 0; i <= x.n; i++) {
+                long c = x.children[i];
+                buf.putInt(p, (c == -1L) ? -1 : (int)slots.index(c));
+                p += 4;
+            }
+        }
+        if (x.n > 0) {
+            int kw = key_bytes(k);
+            put_bytes(buf, p, x.keys[0], kw);
+            p += kw;
+            for (int i = 1; i < x.n; i++) {
+                put_bytes(buf, p, x.keys[i] - x.keys[0], w);
+                p += w;
+            }
+        }
+        for (int i = 0; i < x.n; i++) {
+            int f = x.freqs[i];
+            while ((f & ~0x7f) != 0) {
+                buf.put(p++, (byte)((f & 0x7f) | 0x80));
+                f >>>= 7;
+            }
+            buf.put(p++, (byte)f);
+        }
+        if (p > compact_limit) {
+            System.err.println("compact node at " + x.address + " takes " + p + " of " + compact_limit + " bytes. Exiting");
+            System.exit(1);
+        }
+        // clear the rest so the slot doesn't keep bytes of an older node
+        while (p < NODE_BYTES) {
+            buf.put(p++, (byte)0);
+        }
+    }
+
+    private static void put_bytes(ByteBuffer buf, int p, long v, int w) {
+        for (int i = w - 1; i >= 0; i--) {
+            buf.put(p++, (byte)(v >>> (8*i)));
+        }
+    }
+
+    public void flush() {
+        // write back every dirty node held in the cache
+        if(cache != null) {
+            for(int slot = 0; slot < cache.used; slot++) {
+                if(cache.address(slot) != -1L && frames[slot].dirty) {
+                    write_node(frames[slot]);
+                }
+            }
+        }
+    }
+
+    public void close() {
+        flush();
+        try {
+            file.close();
+        } catch (IOException ex) {
+            System.err.println("Can't close btree file " + file + ". Exiting");
+            System.exit(1);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // test methods used for debug
+    ////////////////////////////////////////////////////////////////////////////
+    public void test_split() {
+        // x = nonfull internal node
+        BTreeNode x = new_node();
+        x.n = 2;
+        x.leaf = 'I';
+        x.keys[0] = 4L;
+        x.keys[1] = 10L;
+        disk_write(x);
+
+        // y = full child of x
+        BTreeNode y = new_node();
+        y.n = 3;
+        y.leaf = 'I';
+        y.keys[0] = 2L;
+        y.keys[1] = 7L;
+        y.keys[2] = 11L;
+        disk_write(y);
+
+        // dummy children for y
+        BTreeNode w = new_node();
+        w.n = 1;
+        w.leaf = 'L';
+        w.keys[0] = 1L;
+        disk_write(w);
+
+        BTreeNode v = new_node();
+        v.n = 1;
+        v.leaf = 'L';
+        v.keys[0] = 3L;
+        disk_write(v);
+
+        y.children[0] = w.address;
+        y.children[1] = v.address;
+        disk_write(y);
+
+        x.children[0] = y.address;
+        disk_write(x);
+
+        printr(x, 0);
+        System.err.println("----------------");
+
+        split_child(x, 0, y, new BTreeNode());
+        printr(x, 0);
+    }
+
+    public void test_file() {
+        BTreeNode x = new_node();
+
+        x.keys[0] = 1L;
+        x.keys[1] = 2L;
+        x.keys[2] = 3L;
+        x.n = 3;
+        x.leaf = 'I';
+
+        BTreeNode c0 = new_node();
+        c0.leaf = 'L';
+        c0.n = 3;
+        c0.keys[0] = 4L;
+        c0.keys[1] = 5L;
+        c0.keys[2] = 6L;
+        BTreeNode c1 = new_node();
+        c1.leaf = 'L';
+        c1.n = 3;
+        c1.keys[0] = 7L;
+        c1.keys[1] = 8L;
+        c1.keys[2] = 9L;
+        BTreeNode c2 = new_node();
+        c2.leaf = 'L';
+        c2.n = 3;
+        c2.keys[0] = 10L;
+        c2.keys[1] = 11L;
+        c2.keys[2] = 12L;
+        BTreeNode c3 = new_node();
+        c3.leaf = 'L';
+        c3.n = 3;
+        c3.keys[0] = 13L;
+        c3.keys[1] = 14L;
+        c3.keys[2] = 15L;
+
+        disk_write(c0);
+        disk_write(c1);
+        disk_write(c2);
+        disk_write(c3);
+
+        x.children[0] = c0.address;
+        x.children[1] = c1.address;
+        x.children[2] = c2.address;
+        x.children[3] = c3.address;
+        disk_write(x);
+
+        x = disk_read(x.address, new BTreeNode());
+        c0 = disk_read(c0.address, new BTreeNode());
+        c1 = disk_read(c1.address, new BTreeNode());
+        c2 = disk_read(c2.address, new BTreeNode());
+        c3 = disk_read(c3.address, new BTreeNode());
+
+        disk_write(c0);
+        disk_write(c1);
+        disk_write(c2);
+        disk_write(c3);
+
+        printr(x, 0);
+    }
+
+    public void check_valid_r(BTreeNode x) {
+        System.err.println("checking BTreeNode at address = " + x.address);
+        // check number of keys
+        if(!x.isRoot()) {
+            // compact nodes are split by bytes, not by keys
+            int min = ((flags & COMPACT) != 0) ? 1 : t-1;
+            if(x.n < min || x.n > max_keys)
+                System.err.println("number of keys violation address = " + x.address);
+            if(!x.isLeaf() && x.nchildren() < min + 1)
+                System.err.println("internal node must have at least " + (min + 1) + " children, found " + x.n + " address = " + x.address);
+            if(!x.isLeaf() && x.nchildren() > max_keys + 1)
+                System.err.println("internal node has too many children " + x.nchildren() + " address = " + x.address);
+        }
+        else if(x.n < 1) {
+            System.err.println("tree is empty, n=0 for root node address = " + x.address);
+        }
+        // leaf node must not have any children
+        if (x.isLeaf()) {
+            for (int j = 0; j < x.children.length; j++) {
+                if (x.children[j] != -1L) {
+                    System.err.println("leaf node has children address = " + x.address + " child " + j);
+                }
+            }
+        }
+        for(int i = 1; i < x.n; i++) {
+            // check that keys are in non-decreasing order
+            if(x.keys[i] <= x.keys[i-1])
+                System.err.println("bad key order found node address = " + x.address + " key = " + x.keys[i]);
+        }
+
+        // check for key/children range order
+        for(int i = 0; i < x.n; i++) {
+            if(x.children[i] != -1L) {
+                BTreeNode y = disk_read(x.children[i], new BTreeNode());
+                // check that y.keys[i] <= x.keys[i]
+                if (i < y.n) {
+                    if (!(y.keys[i] <= x.keys[i])) {
+                        System.err.println("x address = " + x.address + " y.keys[" + i + "] = " + y.keys[i] + " > x.keys[" + i + "] = " + x.keys[i]);
+                    }
+                }
+            }
+            if(x.children[i+1] != -1L) {
+                BTreeNode z = disk_read(x.children[i+1], new BTreeNode());
+                // check that z.keys[i] > x.keys[i]
+                if (i < z.n) {
+                    if (!(z.keys[i] > x.keys[i])) {
+                        System.err.println("x address = " + x.address + " z.keys[" + i + "] = " + z.keys[i] + " <= x.keys[" + i + "] = " + x.keys[i]);
+                    }
+                }
+            }
+        }
+
+        // check children
+        for(int i = 0; i < x.children.length; i++) {
+            BTreeNode w = null;
+            if(x.children[i] != -1L) {
+                w = disk_read(x.children[i], new BTreeNode());
+                check_valid_r(w);
+            }
+        }
+    }
+
+    public void check_valid() {
+        System.err.println("Checking Btree validity");
+        check_valid_r(root);
+    }
+
+    public int check_height_r(BTreeNode r) {
+        if(r.isLeaf())
+            return 1;
+        else {
+            ArrayList<Integer> ch = new ArrayList<>();
+            for(int i = 0; i < r.nchildren(); i++) {
+                BTreeNode y = disk_read(r.children[i], new BTreeNode());
+                ch.add(check_height_r(y));
+            }
+            Collections.sort(ch, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return a.compareTo(b);
+                }
+            });
+            return ch.get(ch.size()-1) + 1;
+        }
+    }
+
+    public int predicted_height() {
+        if(num_nodes <= 1)
+            return 1;
+        long N = (num_nodes+1)/2;
+        return (int)Math.ceil(Math.log10(N)/Math.log10(t));
+    }
+
+    public void check_height() {
+        int p = predicted_height();
+        System.err.println("Checking BTree height, predicted (n=" + num_nodes + ", t=" + t + ") <= " + p);
+        int a = check_height_r(root);
+        if(a > p)
+            System.err.println("wrong height " + a);
+        else
+            System.err.println("height is good " + a);
+    }
+}
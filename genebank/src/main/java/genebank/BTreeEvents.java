@@ -0,0 +1,55 @@
+package genebank;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JFR events of BTree node I/O, recorded with -XX:StartFlightRecording or
+// jcmd <pid> JFR.start and shown under GeneBank in JDK Mission Control.
+// With no recording running, begin and commit do nothing and the JIT
+// removes the event objects.
+final class BTreeEvents {
+
+    private BTreeEvents() {
+    }
+
+    @Name("genebank.DiskRead")
+    @Label("Node Read")
+    @Category({"GeneBank", "BTree"})
+    static class DiskRead extends Event {
+        @Label("Address")
+        long address;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("genebank.DiskWrite")
+    @Label("Node Write")
+    @Category({"GeneBank", "BTree"})
+    static class DiskWrite extends Event {
+        @Label("Address")
+        long address;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("genebank.SplitChild")
+    @Label("Node Split")
+    @Category({"GeneBank", "BTree"})
+    static class SplitChild extends Event {
+        @Label("Address")
+        long address;   // the node split
+
+        @Label("New Address")
+        long sibling;   // the node that got its upper half
+
+        @Label("Leaf")
+        boolean leaf;
+    }
+}
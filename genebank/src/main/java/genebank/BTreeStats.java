@@ -0,0 +1,68 @@
+package genebank;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+// I/O counters and latency histograms of a BTree.  A tree only keeps them
+// when it has one (BTree.stats, set by --stats); otherwise each counted
+// spot costs a null check.  The concurrent read path updates them from
+// several threads, hence the atomic counters.
+class BTreeStats {
+
+    LongAdder reads = new LongAdder();          // nodes read from the file
+    LongAdder writes = new LongAdder();         // nodes written to the file
+    LongAdder splits = new LongAdder();
+    LongAdder cache_hits = new LongAdder();
+    LongAdder cache_misses = new LongAdder();
+    LongAdder bytes_read = new LongAdder();
+    LongAdder bytes_written = new LongAdder();
+
+    LatencyHistogram read = new LatencyHistogram();
+    LatencyHistogram write = new LatencyHistogram();
+    LatencyHistogram split = new LatencyHistogram();
+    LatencyHistogram search = new LatencyHistogram();
+    LatencyHistogram insert = new LatencyHistogram();
+
+    void read(long bytes, long nanos) {
+        reads.increment();
+        bytes_read.add(bytes);
+        read.record(nanos);
+    }
+
+    void write(long bytes, long nanos) {
+        writes.increment();
+        bytes_written.add(bytes);
+        write.record(nanos);
+    }
+
+    void split(long nanos) {
+        splits.increment();
+        split.record(nanos);
+    }
+
+    public void print(PrintStream out) {
+        out.println("  node reads " + reads.sum() + " (" + mb(bytes_read.sum()) + "), writes " + writes.sum()
+            + " (" + mb(bytes_written.sum()) + "), splits " + splits.sum());
+        if (cache_hits.sum() + cache_misses.sum() > 0) {
+            long hits = cache_hits.sum();
+            long all = hits + cache_misses.sum();
+            out.printf("  cache hits %d, misses %d (%.1f%% hits)%n", hits, all - hits, 100.0 * hits / all);
+        }
+        out.println(LatencyHistogram.header());
+        print(out, "node read", read);
+        print(out, "node write", write);
+        print(out, "split", split);
+        print(out, "search", search);
+        print(out, "insert", insert);
+    }
+
+    private static void print(PrintStream out, String name, LatencyHistogram h) {
+        if (h.count() > 0) {
+            out.println(h.summary(name));
+        }
+    }
+
+    static String mb(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,287 @@
+package genebank;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A blocked Bloom filter of the keys of a btree file, kept next to it in
+// <btree file>.bloom so lookups of absent keys can skip the tree.  Each key
+// sets its bits in one 64 byte block picked by its hash, so a query touches
+// a single cache line (and page) of the filter.  Blocks fill unevenly, which
+// costs a few bits per key over a plain Bloom filter at the same rate;
+// bits_per_key accounts for that.
+//
+// File layout, big-endian like the btree files:
+//   +0 int magic, +4 int k, +8 int flags of the tree, +12 int hashes,
+//   +16 long blocks, +24 long keys added, +32 long length of the tree file
+//   when the filter was written, +40 double target false positive rate,
+//   +64 the blocks, 8 longs each.
+// The tree length ties the filter to the tree: a tree rewritten without
+// its filter (e.g. by an older build) almost always changes length, and
+// open() ignores the stale filter rather than answer from it.
+class BloomFilter {
+
+    static final int MAGIC = 0x4b4d4246; // "KMBF"
+    static final int HEADER_BYTES = 64;
+    static final int BLOCK_BITS = 512;
+    static final int BLOCK_LONGS = BLOCK_BITS / 64;
+    static final int SEGMENT_BLOCKS = 1 << 24; // blocks per buffer, 1 GB
+    static final int MAX_HASHES = 16;
+    // Bit positions in a block are 9 bit slices of further 64 bit hashes.
+    // They are independent, unlike a + i*b double hashing, whose patterns
+    // overlap too often in a block this small to reach the target rate.
+    static final int BITS_PER_HASH = 7;
+
+    int k;
+    int flags;
+    int hashes;
+    long blocks;
+    long keys;
+    double fpr;
+    LongBuffer[] segments;  // heap buffers while building, mappings once written
+
+    private BloomFilter() {
+    }
+
+    public static String sidecar(String btree_file) {
+        return btree_file + ".bloom";
+    }
+
+    // An empty filter for n keys at false positive rate fpr.
+    public static BloomFilter create(int k, int flags, long n, double fpr) {
+        BloomFilter f = new BloomFilter();
+        f.k = k;
+        f.flags = flags;
+        f.fpr = fpr;
+        f.hashes = hashes(bits_per_key(fpr));
+        f.blocks = blocks(n, fpr);
+        f.segments = new LongBuffer[(int)((f.blocks + SEGMENT_BLOCKS - 1) / SEGMENT_BLOCKS)];
+        for (int s = 0; s < f.segments.length; s++) {
+            long nblocks = Math.min(SEGMENT_BLOCKS, f.blocks - (long)s * SEGMENT_BLOCKS);
+            f.segments[s] = LongBuffer.wrap(new long[(int)nblocks * BLOCK_LONGS]);
+        }
+        return f;
+    }
+
+    // blocks of a filter for n keys at false positive rate fpr
+    static long blocks(long n, double fpr) {
+        return Math.max(1, (long)Math.ceil(Math.max(n, 1) * bits_per_key(fpr) / BLOCK_BITS));
+    }
+
+    // bytes of the bit array of a filter for n keys at false positive rate fpr
+    static long bytes(long n, double fpr) {
+        return blocks(n, fpr) * (BLOCK_BITS / 8);
+    }
+
+    // hash functions for the bits per key of a plain Bloom filter
+    static int hashes(double bits_per_key) {
+        return (int)Math.max(1, Math.min(MAX_HASHES, Math.round(bits_per_key * Math.log(2))));
+    }
+
+    // The fewest bits per key, in steps of 1/4, at which the expected false
+    // positive rate of a blocked filter is at most fpr.
+    static double bits_per_key(double fpr) {
+        for (double bits = 1; bits < 64; bits += 0.25) {
+            if (blocked_fpr(bits, hashes(bits)) <= fpr) {
+                return bits;
+            }
+        }
+        return 64;
+    }
+
+    // A block gets a Poisson number of keys, 512 / bits_per_key on average;
+    // with i keys in it a query's hashes bits are all set with probability
+    // (1 - (1 - 1/512)^(hashes i))^hashes.
+    static double blocked_fpr(double bits_per_key, int hashes) {
+        double mean = BLOCK_BITS / bits_per_key;
+        double p = Math.exp(-mean);     // P(i keys in the block)
+        double sum = 0;
+        int top = (int)(mean + 12 * Math.sqrt(mean) + 20);
+        for (int i = 0; i <= top; i++) {
+            if (i > 0) {
+                p *= mean / i;
+            }
+            sum += p * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double)hashes * i), hashes);
+        }
+        return sum;
+    }
+
+    static long mix(long z) {
+        // splitmix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public void add(long key) {
+        long h = mix(key);
+        long block = Long.remainderUnsigned(h, blocks);
+        LongBuffer seg = segments[(int)(block / SEGMENT_BLOCKS)];
+        int base = (int)(block % SEGMENT_BLOCKS) * BLOCK_LONGS;
+        long g = 0;
+        for (int i = 0; i < hashes; i++) {
+            if (i % BITS_PER_HASH == 0) {
+                g = mix(h + i);
+            }
+            int bit = (int)g & (BLOCK_BITS - 1);
+            g >>>= 9;
+            int w = base + (bit >>> 6);
+            seg.put(w, seg.get(w) | (1L << bit));
+        }
+        keys++;
+    }
+
+    // the expected false positive rate with the keys added so far, above
+    // fpr once more keys went in than the filter was sized for
+    public double expected_fpr() {
+        return blocked_fpr((double)blocks * BLOCK_BITS / Math.max(keys, 1), hashes);
+    }
+
+    // false if key is certainly not in the tree
+    public boolean might_contain(long key) {
+        long h = mix(key);
+        long block = Long.remainderUnsigned(h, blocks);
+        LongBuffer seg = segments[(int)(block / SEGMENT_BLOCKS)];
+        int base = (int)(block % SEGMENT_BLOCKS) * BLOCK_LONGS;
+        long g = 0;
+        for (int i = 0; i < hashes; i++) {
+            if (i % BITS_PER_HASH == 0) {
+                g = mix(h + i);
+            }
+            int bit = (int)g & (BLOCK_BITS - 1);
+            g >>>= 9;
+            if ((seg.get(base + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a loader that adds every key to this filter on its way to out
+    public BTree.Loader tee(final BTree.Loader out) {
+        return new BTree.Loader() {
+            public void add(long key, int freq) {
+                BloomFilter.this.add(key);
+                out.add(key, freq);
+            }
+
+            public void finish() {
+                out.finish();
+            }
+        };
+    }
+
+    // Writes the filter to the sidecar of btree_file, through a temporary
+    // file so a reader never sees half a filter.
+    public void write(String btree_file) {
+        String file = sidecar(btree_file);
+        File tmp = new File(file + ".tmp");
+        tmp.delete();
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.write(header(new File(btree_file).length()).array());
+            FileChannel ch = out.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+            for (LongBuffer seg : segments) {
+                for (int i = 0; i < seg.limit(); i++) {
+                    if (!buf.hasRemaining()) {
+                        buf.flip();
+                        while (buf.hasRemaining()) {
+                            ch.write(buf);
+                        }
+                        buf.clear();
+                    }
+                    buf.putLong(seg.get(i));
+                }
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        } catch (IOException ex) {
+            System.err.println("Can't write bloom filter " + tmp + ": " + ex.getMessage() + ".  Exiting.");
+            System.exit(1);
+        }
+        if (!tmp.renameTo(new File(file))) {
+            System.err.println("Can't replace bloom filter " + file + ".  Exiting.");
+            System.exit(1);
+        }
+    }
+
+    private ByteBuffer header(long tree_bytes) {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+        h.putInt(0, MAGIC);
+        h.putInt(4, k);
+        h.putInt(8, flags);
+        h.putInt(12, hashes);
+        h.putLong(16, blocks);
+        h.putLong(24, keys);
+        h.putLong(32, tree_bytes);
+        h.putDouble(40, fpr);
+        return h;
+    }
+
+    // The filter of btree_file, memory mapped, or null if it has none or
+    // its filter doesn't match it (with a warning).  writable maps it for
+    // add(), and close() then records the tree's new length.
+    public static BloomFilter open(String btree_file, boolean writable) {
+        String file = sidecar(btree_file);
+        if (!new File(file).exists()) {
+            return null;
+        }
+        BloomFilter f = new BloomFilter();
+        long tree_bytes = 0;
+        try (RandomAccessFile in = new RandomAccessFile(file, writable ? "rw" : "r")) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+            in.readFully(h.array());
+            f.k = h.getInt(4);
+            f.flags = h.getInt(8);
+            f.hashes = h.getInt(12);
+            f.blocks = h.getLong(16);
+            f.keys = h.getLong(24);
+            tree_bytes = h.getLong(32);
+            f.fpr = h.getDouble(40);
+            if (h.getInt(0) != MAGIC || f.blocks < 1 || f.hashes < 1
+                    || in.length() != HEADER_BYTES + f.blocks * (BLOCK_BITS / 8)) {
+                System.err.println(file + " is not a bloom filter, not using it");
+                return null;
+            }
+            BTree.Header tree = BTree.Header.read(btree_file);
+            if (tree_bytes != new File(btree_file).length() || f.k != tree.k
+                    || (f.flags & BTree.CANONICAL) != (tree.flags & BTree.CANONICAL)) {
+                System.err.println(file + " is out of date for " + btree_file + ", not using it");
+                return null;
+            }
+            FileChannel ch = in.getChannel();
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            f.segments = new LongBuffer[(int)((f.blocks + SEGMENT_BLOCKS - 1) / SEGMENT_BLOCKS)];
+            for (int s = 0; s < f.segments.length; s++) {
+                long nblocks = Math.min(SEGMENT_BLOCKS, f.blocks - (long)s * SEGMENT_BLOCKS);
+                long pos = HEADER_BYTES + (long)s * SEGMENT_BLOCKS * (BLOCK_BITS / 8);
+                MappedByteBuffer m = ch.map(mode, pos, nblocks * (BLOCK_BITS / 8));
+                f.segments[s] = m.asLongBuffer();
+            }
+        } catch (FileNotFoundException ex) {
+            return null;
+        } catch (IOException ex) {
+            System.err.println("Can't read bloom filter " + file + ": " + ex.getMessage() + ".  Exiting.");
+            System.exit(1);
+        }
+        return f;
+    }
+
+    // Updates the header of a filter opened writable after keys were added
+    // to it and to the tree, which is closed by now.
+    public void close(String btree_file) {
+        try (RandomAccessFile out = new RandomAccessFile(sidecar(btree_file), "rw")) {
+            out.write(header(new File(btree_file).length()).array());
+        } catch (IOException ex) {
+            System.err.println("Can't write bloom filter " + sidecar(btree_file) + ": " + ex.getMessage() + ".  Exiting.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package genebank;
+
+import java.nio.ByteBuffer;
+
+// A NodeView over a node in the compact encoding (see BTree.write_compact).
+// Keys are read in place, the first key plus a fixed width delta, so they
+// can still be binary searched.  Freqs are varints and have no fixed
+// offset: they are decoded in order, picking up after the last one read,
+// which is how the searches and scans ask for them.
+class CompactNodeView extends NodeView {
+
+    int kw;             // bytes of a key
+    BTree.Slots slots;  // child slot numbers to addresses
+    int n;
+    boolean leaf;
+    int w;              // bytes of a delta in this node
+    long first;         // the first key of this node
+    int keys_off;       // offset of the first delta in this node
+    int freqs_off;      // offset of the first freq in this node
+    int next_freq;      // index of the freq at next_off
+    int next_off;
+
+    public CompactNodeView(int k, int t, BTree.Slots slots) {
+        super(t);
+        kw = BTree.key_bytes(k);
+        this.slots = slots;
+    }
+
+    @Override
+    public NodeView set(ByteBuffer buf, int base, long address) {
+        super.set(buf, base, address);
+        n = buf.getInt(base + 4);
+        leaf = buf.getChar(base) == 'L';
+        w = buf.get(base + 8);
+        int p = 9 + (leaf ? 0 : 4*(n + 1));
+        first = (n > 0) ? BTree.get_bytes(buf, base + p, kw) : 0L;
+        keys_off = p + kw;
+        freqs_off = keys_off + w*Math.max(n - 1, 0);
+        next_freq = 0;
+        next_off = freqs_off;
+        return this;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    @Override
+    public int n() {
+        return n;
+    }
+
+    @Override
+    public long key(int i) {
+        return (i == 0) ? first : first + BTree.get_bytes(buf, base + keys_off + w*(i - 1), w);
+    }
+
+    @Override
+    public int freq(int i) {
+        if (i < next_freq) {
+            next_freq = 0;
+            next_off = freqs_off;
+        }
+        // skip to freq i, 8 bytes at a time when they end on a whole
+        // varint; a varint ends at each byte below 0x80
+        while (next_freq < i) {
+            if (i - next_freq >= 8) {
+                long b = buf.getLong(base + next_off);
+                if ((b & 0x80L) == 0) {
+                    next_freq += Long.bitCount(~b & 0x8080808080808080L);
+                    next_off += 8;
+                    continue;
+                }
+            }
+            while (buf.get(base + next_off++) < 0) {
+            }
+            next_freq++;
+        }
+        int f = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get(base + next_off++);
+            f |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        next_freq++;
+        return f;
+    }
+
+    @Override
+    public long child(int i) {
+        int slot = buf.getInt(base + 9 + 4*i);
+        return (slot < 0) ? -1L : slots.address(slot);
+    }
+}
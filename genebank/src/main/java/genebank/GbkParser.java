@@ -0,0 +1,132 @@
+package genebank;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Streams the bases of every ORIGIN section of a GenBank file to a consumer
+// without ever building a whole sequence.  The file is read in large chunks
+// through a FileChannel and scanned byte by byte; the state needed to find
+// "ORIGIN" and "//" lines is carried over from one chunk to the next.
+//
+// A line containing ORIGIN starts a record, a line starting with // ends it,
+// and in between every character that is not a digit or white space is a
+// base.  Bases are handed over lower case, in batches.
+class GbkParser {
+
+    interface BaseConsumer {
+        void start_record();
+        void bases(byte[] b, int off, int len);
+        void end_record();
+    }
+
+    static final int CHUNK_BYTES = 1 << 20;
+    static final byte[] ORIGIN = {'O', 'R', 'I', 'G', 'I', 'N'};
+
+    // returns the number of records found
+    public static int parse(String gbk_file, BaseConsumer consumer) {
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(gbk_file);
+        } catch (FileNotFoundException ex) {
+            System.err.println("can't open gbk file. Exiting");
+            System.exit(1);
+        }
+        FileChannel channel = input.getChannel();
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_BYTES);
+        byte[] in = buf.array();
+        byte[] out = new byte[CHUNK_BYTES];
+
+        int records = 0;
+        boolean start = false;    // inside an ORIGIN section
+        boolean line_start = true; // only white space seen so far on this line
+        boolean slash = false;    // line started with a single '/'
+        boolean skip = false;     // ignore the rest of this line
+        int origin = 0;           // characters of "ORIGIN" matched on this line
+        try {
+            while (channel.read(buf) >= 0) {
+                int len = buf.position();
+                int nout = 0;
+                for (int i = 0; i < len; i++) {
+                    byte c = in[i];
+                    if (c == '\n') {
+                        if (slash) {
+                            out[nout++] = '/';
+                        }
+                        if (!start && origin == ORIGIN.length) {
+                            start = true;
+                            records++;
+                            consumer.start_record();
+                        }
+                        line_start = true;
+                        slash = false;
+                        skip = false;
+                        origin = 0;
+                    }
+                    else if (skip) {
+                        continue;
+                    }
+                    else if (!start) {
+                        // look for ORIGIN anywhere on the line
+                        if (origin < ORIGIN.length) {
+                            origin = (c == ORIGIN[origin]) ? origin + 1 : (c == 'O' ? 1 : 0);
+                        }
+                    }
+                    else if (slash) {
+                        slash = false;
+                        if (c == '/') {
+                            // end of the record
+                            if (nout > 0) {
+                                consumer.bases(out, 0, nout);
+                                nout = 0;
+                            }
+                            consumer.end_record();
+                            start = false;
+                            skip = true;
+                            continue;
+                        }
+                        out[nout++] = '/';
+                        nout = base(c, out, nout);
+                    }
+                    else if (line_start && c == '/') {
+                        slash = true;
+                        line_start = false;
+                    }
+                    else {
+                        if (c != ' ' && c != '\t' && c != '\r') {
+                            line_start = false;
+                        }
+                        nout = base(c, out, nout);
+                    }
+                }
+                if (nout > 0) {
+                    consumer.bases(out, 0, nout);
+                }
+                buf.clear();
+            }
+            if (start) {
+                // file ended inside a record, keep what was read
+                consumer.end_record();
+            }
+            input.close();
+        } catch (IOException ex) {
+            System.err.println("can't read gbk file. Exiting");
+            System.exit(1);
+        }
+        return records;
+    }
+
+    // append c to out if it is a base, lower case
+    private static int base(byte c, byte[] out, int nout) {
+        if (c <= ' ' || (c >= '0' && c <= '9')) {
+            return nout;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            c += 'a' - 'A';
+        }
+        out[nout++] = c;
+        return nout;
+    }
+}
@@ -0,0 +1,170 @@
+package genebank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+// Looks up the lines of a query file in a tree held by a GeneBankServer and
+// prints the hits like GeneBankSearch does.
+public class GeneBankClient {
+
+    public static void main(String[] argv) {
+        String use = "java genebank.GeneBankClient (--socket <path> | --port <port>) [--batch <queries>] <tree index> <query file>";
+        Options args = new Options(argv, use, new String[] {}, new String[] {"--socket", "--port", "--batch"});
+        if(args.size() < 2 || args.has("--socket") == args.has("--port")) {
+            System.err.println("use " + use);
+            System.exit(1);
+        }
+        int tree = Integer.parseInt(args.get(0));
+        String query_file = args.get(1);
+        // send the queries this many at a time in BATCH requests
+        int batch = args.get_int("--batch", 0);
+        if(batch < 0 || batch > GeneBankServer.MAX_BATCH) {
+            System.err.println("batch must be between 0 and " + GeneBankServer.MAX_BATCH);
+            System.exit(1);
+        }
+
+        Connection c = new Connection(GeneBankServer.address(args));
+        if(tree < 0 || tree >= c.ks.length) {
+            System.err.println("the server has no tree " + tree);
+            System.exit(1);
+        }
+        int k = c.ks[tree];
+        boolean canonical = (c.flags[tree] & BTree.CANONICAL) != 0;
+
+        ArrayList<String> queries = read_queries(query_file);
+        int block = Math.max(batch, 1);
+        long[] keys = new long[block];
+        int[] freqs = new int[block];
+        try {
+            for(int q = 0; q < queries.size(); q += block) {
+                int n = Math.min(block, queries.size() - q);
+                for(int i = 0; i < n; i++) {
+                    long key = GeneBankCreateBTree.seq_encode(queries.get(q + i));
+                    keys[i] = canonical ? KmerScanner.canonical(key, k) : key;
+                }
+                if(batch > 0) {
+                    c.batch(tree, keys, n, freqs);
+                }
+                else {
+                    freqs[0] = c.lookup(tree, keys[0]);
+                }
+                for(int i = 0; i < n; i++) {
+                    if(freqs[i] > 0) {
+                        System.out.println(GeneBankCreateBTree.key_decode(keys[i], k) + ": " + freqs[i]);
+                    }
+                }
+            }
+            c.close();
+        } catch (IOException ex) {
+            System.err.println("request failed: " + ex.getMessage() + ".  Exiting.");
+            System.exit(1);
+        }
+    }
+
+    // the lines of a query file, lower case
+    static ArrayList<String> read_queries(String query_file) {
+        ArrayList<String> queries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(query_file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                queries.add(line.toLowerCase());
+            }
+        } catch (FileNotFoundException ex) {
+            System.err.println("query file " + query_file + " not found.  Exiting.");
+            System.exit(1);
+        } catch (IOException ex) {
+            System.err.println("Error reading query file " + query_file + ".  Exiting.");
+            System.exit(1);
+        }
+        return queries;
+    }
+
+    // One connection to a GeneBankServer.  The trees it serves are read
+    // with INFO when connecting.  Not thread-safe, use one per thread.
+    static class Connection {
+        SocketChannel ch;
+        DataInputStream in;
+        DataOutputStream out;
+        int[] ks;
+        int[] ts;
+        int[] flags;
+        String[] names;
+
+        Connection(SocketAddress address) {
+            try {
+                ch = SocketChannel.open(address);
+                in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+                out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+                out.writeInt(1);
+                out.writeByte(GeneBankServer.INFO);
+                out.flush();
+                response();
+                int ntrees = in.readInt();
+                ks = new int[ntrees];
+                ts = new int[ntrees];
+                flags = new int[ntrees];
+                names = new String[ntrees];
+                for(int i = 0; i < ntrees; i++) {
+                    ks[i] = in.readInt();
+                    ts[i] = in.readInt();
+                    flags[i] = in.readInt();
+                    names[i] = in.readUTF();
+                }
+            } catch (IOException ex) {
+                System.err.println("Can't connect to " + address + ": " + ex.getMessage() + ".  Exiting.");
+                System.exit(1);
+            }
+        }
+
+        // freq of key in tree, 0 if absent
+        int lookup(int tree, long key) throws IOException {
+            out.writeInt(13);
+            out.writeByte(GeneBankServer.LOOKUP);
+            out.writeInt(tree);
+            out.writeLong(key);
+            out.flush();
+            response();
+            return in.readInt();
+        }
+
+        // freqs[i] = freq of keys[i] in tree, for i < n
+        void batch(int tree, long[] keys, int n, int[] freqs) throws IOException {
+            out.writeInt(9 + 8*n);
+            out.writeByte(GeneBankServer.BATCH);
+            out.writeInt(tree);
+            out.writeInt(n);
+            for(int i = 0; i < n; i++) {
+                out.writeLong(keys[i]);
+            }
+            out.flush();
+            response();
+            for(int i = 0; i < n; i++) {
+                freqs[i] = in.readInt();
+            }
+        }
+
+        // read the length and status of a response
+        private void response() throws IOException {
+            int len = in.readInt();
+            byte status = in.readByte();
+            if(status != GeneBankServer.OK) {
+                in.skipNBytes(len - 1);
+                throw new IOException("server rejected the request");
+            }
+        }
+
+        void close() throws IOException {
+            ch.close();
+        }
+    }
+}
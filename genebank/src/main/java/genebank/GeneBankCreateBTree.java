@@ -0,0 +1,469 @@
+package genebank;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.IntStream;
+
+public class GeneBankCreateBTree {
+
+    // a random node read or write costs about this many sequential ones
+    static final int RANDOM_IO_COST = 8;
+
+    public static void main(String[] argv) {
+
+        //
+        // Process command line args
+        //
+        String use = "java genebank.GeneBankCreateBTree [--fill <fraction>] [--threads <n>] [--canonical] [--compact] [--bplus] [--page-size <bytes>] [--append <btree file>] [--max-memory <MB>] [--bloom <false positive rate>] [--stats] <0/1(no/with Cache)> <degree> <gbk file> <sequence length>[,<sequence length>...] [<cache size>] [<debug level>]";
+        Options args = new Options(argv, use, new String[] {"--canonical", "--compact", "--bplus", "--stats"}, new String[] {"--fill", "--threads", "--page-size", "--append", "--max-memory", "--bloom"});
+        if(args.size() < 4) {
+            System.err.println("use " + use);
+            System.exit(1);
+        }
+        int use_cache = Integer.parseInt(args.get(0));
+        int degree = Integer.parseInt(args.get(1));
+        String gbk_file = args.get(2);
+        // several sequence lengths share one scan of the file
+        String[] lens = args.get(3).split(",");
+        int[] seq_lens = new int[lens.length];
+        for(int i = 0; i < lens.length; i++) {
+            seq_lens[i] = Integer.parseInt(lens[i].trim());
+        }
+        seq_lens = IntStream.of(seq_lens).sorted().distinct().toArray();
+        int cache_size = 0;
+        int debug_level = 0;
+        if(args.size() > 4) {
+            cache_size = Integer.parseInt(args.get(4));
+        }
+        if(args.size() > 5) {
+            debug_level = Integer.parseInt(args.get(5));
+        }
+        // fraction of the 2t-1 key slots, or of the bytes of a compact node,
+        // filled in each node by the bulk load
+        double fill = args.get_double("--fill", 1.0);
+        if(fill <= 0.0 || fill > 1.0) {
+            System.err.println("fill must be in (0, 1]");
+            System.exit(1);
+        }
+        // counting threads
+        int threads = args.get_int("--threads", Runtime.getRuntime().availableProcessors());
+        if(threads < 1) {
+            System.err.println("threads must be at least 1");
+            System.exit(1);
+        }
+        // store min(kmer, reverse complement) so both strands share a key
+        boolean canonical = args.has("--canonical");
+        // delta keys, varint freqs and int child slots, see BTree.write_compact
+        boolean compact = args.has("--compact");
+        // keys and freqs only in linked leaves, see BPlusLoader
+        boolean bplus = args.has("--bplus");
+        if(bplus && compact) {
+            System.err.println("--bplus and --compact can't be used together");
+            System.exit(1);
+        }
+        int flags = (canonical ? BTree.CANONICAL : 0) | (compact ? BTree.COMPACT : 0) | (bplus ? BTree.BPLUS : 0);
+        // nodes are laid out in pages of this size, the device block size
+        int page_size = args.get_int("--page-size", BTree.DEFAULT_PAGE_BYTES);
+        if(page_size < 512 || page_size > (1 << 20) || Integer.bitCount(page_size) != 1) {
+            System.err.println("page size must be a power of two between 512 and 1048576");
+            System.exit(1);
+        }
+        // memory for counting; past it the counts are spilled to sorted runs
+        // on disk (under java.io.tmpdir) and merged back while building
+        long max_memory = (long)args.get_int("--max-memory", 0) << 20;
+        if(max_memory < 0 || (args.has("--max-memory") && max_memory == 0)) {
+            System.err.println("max memory must be a positive number of MB");
+            System.exit(1);
+        }
+        // write a bloom filter of the keys next to each tree, see BloomFilter
+        double bloom_fpr = args.get_double("--bloom", 0.0);
+        if(args.has("--bloom") && (bloom_fpr <= 0.0 || bloom_fpr >= 1.0)) {
+            System.err.println("bloom filter false positive rate must be in (0, 1)");
+            System.exit(1);
+        }
+        // print throughput, node I/O and latencies of every tree built
+        boolean stats = args.has("--stats");
+        // keys are 2 bits per base in a positive long
+        if(seq_lens[0] < 1 || seq_lens[seq_lens.length - 1] > 31) {
+            System.err.println("sequence length must be between 1 and 31");
+            System.exit(1);
+        }
+        if(use_cache != 0 && use_cache != 1) {
+            System.err.println("use " + use);
+            System.exit(1);
+        }
+        // add the k-mers of the gbk file to this tree instead of building a
+        // new one; k, t and the node layout are the tree's
+        String append_file = args.get("--append", null);
+        BTree.Header append_header = null;
+        if(append_file != null) {
+            if(compact || bplus || args.has("--page-size") || args.has("--bloom")) {
+                System.err.println("--append keeps the layout and bloom filter of the tree, drop --compact, --bplus, --page-size and --bloom");
+                System.exit(1);
+            }
+            if(seq_lens.length > 1) {
+                System.err.println("--append takes one sequence length");
+                System.exit(1);
+            }
+            append_header = BTree.Header.read(append_file);
+            append_header.check(append_file, seq_lens[0], (degree == 0) ? append_header.t : degree, flags);
+        }
+        if(use_cache == 0) {
+            cache_size = 0;
+        }
+        else if(cache_size <= 0) {
+            cache_size = BTree.DEFAULT_CACHE_SIZE;
+        }
+
+        //
+        // Stream the gbk file, counting substring keys on all threads
+        //
+        long count_start = System.nanoTime();
+        KmerCounter counter = new KmerCounter(seq_lens, threads, canonical, max_memory);
+        int nseqs = GbkParser.parse(gbk_file, counter);
+        KmerRuns[] gbk_subs = counter.finish();
+        long count_nanos = System.nanoTime() - count_start;
+        if(debug_level > 0) {
+            System.err.println("there are " + nseqs + " sequences in file " + gbk_file);
+            System.err.flush();
+        }
+
+        if(append_file != null) {
+            BTreeStats tree_stats = stats ? new BTreeStats() : null;
+            long start = System.nanoTime();
+            long kmers = append(append_file, append_header, gbk_subs[0], cache_size, fill, max_memory, tree_stats);
+            gbk_subs[0].delete();
+            if(stats) {
+                print_stats(append_file, kmers, count_nanos, System.nanoTime() - start, tree_stats);
+            }
+            return;
+        }
+
+        //
+        //
+        // Insert subsequences into BTree
+        //
+        //
+        // one tree per sequence length, built one after the other
+        //
+        for(int j = 0; j < seq_lens.length; j++) {
+            int seq_len = seq_lens[j];
+            // 0: as many keys as fit in one page, which for compact nodes
+            // is the least a node holds, see BTree.node_bytes
+            int t = (degree == 0) ? BTree.max_degree(seq_len, flags, page_size) : degree;
+
+            String output_file = gbk_file.concat(".btree.data." + seq_len + "." + t);
+
+            // Since we are creating the btree, if the file exists, remove it
+            File f = new File(output_file);
+            if(f.exists() && !f.isDirectory()) {
+                f.delete();
+            }
+            new File(BloomFilter.sidecar(output_file)).delete();
+
+            // a B+tree is written by its loader alone
+            BTree btree = null;
+            BTreeStats tree_stats = stats ? new BTreeStats() : null;
+            long build_start = System.nanoTime();
+            if(!bplus) {
+                //                   k       t     filename     cache
+                btree = new BTree(seq_len, t, output_file, cache_size, flags, page_size);
+                btree.stats = tree_stats;
+            }
+            long kmers = 0;
+            BloomFilter bloom = null;
+
+            int print_count = 0;
+            // the B+tree loader and the bloom filter need the number of
+            // keys up front, which takes a pass over spilled runs; the dots
+            // can do with the number of counts in them, which counts a key
+            // once for every run it is in
+            long nkeys = (bplus || bloom_fpr > 0.0) ? gbk_subs[j].count() : gbk_subs[j].entries;
+            int max_subs = (int)Math.min(nkeys, Integer.MAX_VALUE);
+            if(debug_level > 0) {
+                System.err.println("gbk_subs size() is " + max_subs);
+            }
+
+            // build the tree bottom-up from the sorted keys in one pass,
+            // the partitions or the merged runs are in key order
+            BTree.Loader loader = bplus
+                ? new BPlusLoader(output_file, seq_len, t, flags, page_size, nkeys, fill)
+                : btree.bulk_loader(fill);
+            if(bloom_fpr > 0.0) {
+                bloom = new_bloom(seq_len, flags, nkeys, bloom_fpr, max_memory);
+                loader = bloom.tee(loader);
+            }
+            for(KmerRuns.Cursor c = gbk_subs[j].cursor(); c.has(); c.next()) {
+                if(debug_level > 0) {
+                    System.out.println("inserting " + key_decode(c.key(), seq_len) + ": " + c.count());
+                }
+                loader.add(c.key(), c.count());
+                kmers += c.count();
+
+                if(debug_level == 0) {
+                    print_count = print_a_dot(max_subs, print_count); 
+                }
+            }
+            loader.finish();
+            gbk_subs[j].delete();
+            gbk_subs[j] = null;
+            System.err.println();
+
+            if(btree == null) {
+                if(bloom != null) {
+                    bloom.write(output_file);
+                }
+                if(stats) {
+                    print_stats(output_file, kmers, count_nanos, System.nanoTime() - build_start, null);
+                }
+                continue;
+            }
+
+            if(debug_level > 0) {
+                btree.print();
+            }
+
+            if(debug_level > 0) {
+                // check if btree is a valid btree
+                btree.check_valid();
+                btree.check_height();
+            }
+
+            // write back any nodes still held in the cache
+            btree.close();
+            if(bloom != null) {
+                bloom.write(output_file);
+            }
+            if(stats) {
+                print_stats(output_file, kmers, count_nanos, System.nanoTime() - build_start, tree_stats);
+            }
+        }
+    }
+
+    // The --stats summary of one tree: kmers occurrences counted, then
+    // written to it.  Counting is shared by all sequence lengths.
+    static void print_stats(String file, long kmers, long count_nanos, long build_nanos, BTreeStats tree_stats) {
+        System.err.println("stats for " + file + ":");
+        System.err.printf("  %d k-mers, counted in %.3f s (all lengths), built in %.3f s, %.0f k-mers/s%n",
+            kmers, count_nanos / 1e9, build_nanos / 1e9, kmers / ((count_nanos + build_nanos) / 1e9));
+        if(tree_stats != null) {
+            tree_stats.print(System.err);
+        }
+    }
+
+    // Adds the counts in runs to an existing tree file.  A small delta is
+    // upserted: the keys are inserted in order through a node cache that
+    // holds at least the path from the root, so keys that land in the same
+    // leaf share its reads and writes, and each distinct leaf costs about a
+    // random read and a random write.  A large delta is merged with
+    // the old keys into a new file instead, which reads and writes every
+    // node once, sequentially, and replaces the old file when it is
+    // complete.  Upserts are picked when the leaves they are expected to
+    // touch cost less than that; B+tree files are always merged.  A bloom
+    // filter of the tree is kept up to date: upserts add the keys they
+    // create to it in place, or rebuild it from the tree once it holds more
+    // keys than its false positive rate allows; a merge writes a new one
+    // sized for the merged keys.  Returns the number of k-mers added.
+    static long append(String file, BTree.Header h, KmerRuns runs, int cache_size, double fill, long max_memory, BTreeStats stats) {
+        // distinct keys; spilled runs are read through once for it
+        long added = runs.count();
+        long slots = h.slots().count(new File(file).length());
+        // distinct nodes hit by added uniformly spread keys
+        double touched = slots * -Math.expm1(-(double)added / Math.max(slots, 1));
+        boolean upsert = (h.flags & BTree.BPLUS) == 0 && touched * RANDOM_IO_COST < slots;
+        System.err.println("adding " + added + " k-mers to " + file + " (" + slots + " nodes) by " + (upsert ? "upserts" : "a merge rebuild"));
+
+        long kmers = 0;
+        if(upsert) {
+            BloomFilter bloom = BloomFilter.open(file, true);
+            // without a cache every insert would read and write its whole
+            // path; twice the height leaves room for the nodes of splits
+            int height = new MappedBTree(file).height();
+            BTree btree = new BTree(h.k, h.t, file, Math.max(cache_size, 2 * height), h.flags);
+            btree.stats = stats;
+            for(KmerRuns.Cursor c = runs.cursor(); c.has(); c.next()) {
+                if(btree.insert(c.key(), c.count()) && bloom != null) {
+                    bloom.add(c.key());
+                }
+                kmers += c.count();
+            }
+            btree.close();
+            if(bloom != null && bloom.expected_fpr() > bloom.fpr) {
+                System.err.println("bloom filter of " + file + " is over its false positive rate, rebuilding it");
+                final BloomFilter grown = new_bloom(h.k, h.flags, bloom.keys, bloom.fpr, max_memory);
+                new MappedBTree(file).range(0L, Long.MAX_VALUE, (key, freq) -> {
+                    grown.add(key);
+                    return true;
+                });
+                grown.write(file);
+            }
+            else if(bloom != null) {
+                bloom.close(file);
+            }
+            return kmers;
+        }
+
+        String tmp = file + ".tmp";
+        new File(tmp).delete();
+        MappedBTree old = new MappedBTree(file);
+        // old version files are rewritten in the current format
+        int page_size = (h.page_bytes == 0) ? BTree.DEFAULT_PAGE_BYTES : h.page_bytes;
+        BTree btree = null;
+        BTree.Loader loader;
+        BloomFilter old_bloom = BloomFilter.open(file, false);
+        // the B+tree loader and the bloom filter need the number of keys up
+        // front; delta keys already in the tree would be counted twice in
+        // old_bloom.keys + added
+        long n = ((h.flags & BTree.BPLUS) != 0 || old_bloom != null) ? merge(old, runs, null).count : 0;
+        if((h.flags & BTree.BPLUS) != 0) {
+            loader = new BPlusLoader(tmp, h.k, h.t, h.flags, page_size, n, fill);
+        }
+        else {
+            btree = new BTree(h.k, h.t, tmp, cache_size, h.flags, page_size);
+            btree.stats = stats;
+            loader = btree.bulk_loader(fill);
+        }
+        BloomFilter bloom = null;
+        if(old_bloom != null) {
+            bloom = new_bloom(h.k, h.flags, n, old_bloom.fpr, max_memory);
+            loader = bloom.tee(loader);
+        }
+        kmers = merge(old, runs, loader).kmers;
+        loader.finish();
+        if(btree != null) {
+            btree.close();
+        }
+        try {
+            Files.move(Path.of(tmp), Path.of(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            System.err.println("Can't replace " + file + " with " + tmp + ": " + ex.getMessage() + ".  Exiting.");
+            System.exit(1);
+        }
+        if(bloom != null) {
+            bloom.write(file);
+        }
+        return kmers;
+    }
+
+    // An empty bloom filter for n keys.  Its bit array is on the heap
+    // while the tree is built, so it has to fit in --max-memory (if given)
+    // like the counting tables before it.
+    static BloomFilter new_bloom(int k, int flags, long n, double fpr, long max_memory) {
+        long bytes = BloomFilter.bytes(n, fpr);
+        if(max_memory > 0 && bytes > max_memory) {
+            System.err.println("a bloom filter of " + n + " keys at false positive rate " + fpr + " takes " + ((bytes + (1 << 20) - 1) >> 20)
+                + " MB, more than max memory, raise --max-memory or the rate.  Exiting.");
+            System.exit(1);
+        }
+        return BloomFilter.create(k, flags, n, fpr);
+    }
+
+    // Sends the keys of old and of runs to out in key order, with the freqs
+    // of keys found in both added up.  The merger returned has counted the
+    // keys sent; with out null they are only counted.
+    static Merger merge(MappedBTree old, KmerRuns runs, BTree.Loader out) {
+        Merger m = new Merger(runs.cursor(), out);
+        old.range(0L, Long.MAX_VALUE, m);
+        m.drain(Long.MAX_VALUE);
+        return m;
+    }
+
+    static class Merger implements BTree.KeyVisitor {
+        KmerRuns.Cursor c;  // at the next new key
+        BTree.Loader out;
+        long count;
+        long kmers;         // sum of the new freqs
+
+        Merger(KmerRuns.Cursor c, BTree.Loader out) {
+            this.c = c;
+            this.out = out;
+        }
+
+        public boolean visit(long key, int freq) {
+            drain(key);
+            if(c.has() && c.key() == key) {
+                freq = (int)Math.min((long)freq + c.count(), Integer.MAX_VALUE);
+                kmers += c.count();
+                c.next();
+            }
+            emit(key, freq);
+            return true;
+        }
+
+        // sends the new keys below key
+        void drain(long key) {
+            while(c.has() && c.key() < key) {
+                kmers += c.count();
+                emit(c.key(), c.count());
+                c.next();
+            }
+        }
+
+        private void emit(long key, int freq) {
+            count++;
+            if(out != null) {
+                out.add(key, freq);
+            }
+        }
+    }
+
+    public static String key_decode(Long key, int k) {
+        String result = "";
+        for(long i = 0; i < (long)k; i++) {
+            long digit = ((key & (3L<<2L*i)) >> 2L*i);
+            if(digit == 0L) {
+                result = "a".concat(result);
+            }
+            else if(digit == 3L) {
+                result = "t".concat(result);
+            }
+            else if(digit == 1L) {
+                result = "c".concat(result);
+            }
+            else if (digit == 2L) {
+                result = "g".concat(result);
+            }
+        }
+        return result;
+    }
+
+    public static Long seq_encode(String s) {
+        Long key = 0L;
+        int j = 0;
+        long digit = 0;
+        for(int i = s.length()-1; i >= 0; i--) {
+            switch(s.charAt(i)) {
+                case 'a':
+                    digit = 0;
+                    break;
+                case 't':
+                    digit = 3;
+                    break;
+                case 'c':
+                    digit = 1;
+                    break;
+                case 'g':
+                    digit = 2;
+                    break;
+            }
+            key = ((digit&3) << j) | key;
+            j += 2;
+        }
+        return key;
+    }
+
+    static int print_a_dot(int max_count, int current_count) {
+        // print a dot to the screen to keep the user from pressing CTRL-C 
+        if(max_count > 80 && current_count%10 == 0) { 
+            int modulus = 10*(max_count/80);
+            System.err.printf(".");
+        }
+        else if(max_count <= 80) {
+            System.err.printf(".");
+        }
+        return current_count + 1;
+    }
+}
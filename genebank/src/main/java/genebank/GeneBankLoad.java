@@ -0,0 +1,123 @@
+package genebank;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+// Drives a GeneBankServer with the queries of a query file from several
+// connections at once and reports throughput and request latency.
+public class GeneBankLoad {
+
+    public static void main(String[] argv) {
+        String use = "java genebank.GeneBankLoad (--socket <path> | --port <port>) [--connections <n>] [--requests <n>] [--warmup <n>] [--batch <keys>] <tree index> <query file>";
+        Options args = new Options(argv, use, new String[] {},
+            new String[] {"--socket", "--port", "--connections", "--requests", "--warmup", "--batch"});
+        if(args.size() < 2 || args.has("--socket") == args.has("--port")) {
+            System.err.println("use " + use);
+            System.exit(1);
+        }
+        final int tree = Integer.parseInt(args.get(0));
+        String query_file = args.get(1);
+        int connections = args.get_int("--connections", 4);
+        // timed requests per connection, after the untimed warmup ones
+        final int requests = args.get_int("--requests", 10000);
+        final int warmup = args.get_int("--warmup", 1000);
+        // keys per request, 0 = one LOOKUP per request
+        final int batch = args.get_int("--batch", 0);
+        if(connections < 1 || requests < 1 || warmup < 0 || batch < 0 || batch > GeneBankServer.MAX_BATCH) {
+            System.err.println("use " + use);
+            System.exit(1);
+        }
+
+        ArrayList<String> queries = GeneBankClient.read_queries(query_file);
+        if(queries.isEmpty()) {
+            System.err.println("query file " + query_file + " is empty.  Exiting.");
+            System.exit(1);
+        }
+        final long[] keys = new long[queries.size()];
+        for(int i = 0; i < keys.length; i++) {
+            keys[i] = GeneBankCreateBTree.seq_encode(queries.get(i));
+        }
+
+        final SocketAddress address = GeneBankServer.address(args);
+        final long[][] latency = new long[connections][requests]; // ns
+        // the clock starts when every connection is done warming up
+        final long[] start = new long[1];
+        final CyclicBarrier warm = new CyclicBarrier(connections, () -> start[0] = System.nanoTime());
+        Thread[] threads = new Thread[connections];
+        for(int c = 0; c < connections; c++) {
+            final int id = c;
+            final GeneBankClient.Connection conn = new GeneBankClient.Connection(address);
+            threads[c] = new Thread(() -> run(conn, tree, keys, batch, warmup, warm, latency[id], id));
+        }
+        for(Thread th : threads) {
+            th.start();
+        }
+        for(Thread th : threads) {
+            try {
+                th.join();
+            } catch (InterruptedException ex) {
+                System.exit(1);
+            }
+        }
+        double secs = (System.nanoTime() - start[0]) / 1e9;
+
+        long[] all = new long[connections * requests];
+        for(int c = 0; c < connections; c++) {
+            System.arraycopy(latency[c], 0, all, c * requests, requests);
+        }
+        Arrays.sort(all);
+        long total = (long)connections * requests;
+        long nkeys = total * Math.max(batch, 1);
+        System.out.printf("%d connections, %d requests of %d keys in %.3f s%n", connections, total, Math.max(batch, 1), secs);
+        System.out.printf("throughput: %.0f requests/s, %.0f keys/s%n", total / secs, nkeys / secs);
+        System.out.printf("latency: p50 %.1f us, p99 %.1f us, max %.1f us%n",
+            percentile(all, 0.50) / 1e3, percentile(all, 0.99) / 1e3, all[all.length - 1] / 1e3);
+    }
+
+    // one connection: warmup untimed requests, a wait at warm for the other
+    // connections, then one timed request per slot of latency, each on keys
+    // picked at random from the query file
+    static void run(GeneBankClient.Connection conn, int tree, long[] keys, int batch, int warmup, CyclicBarrier warm, long[] latency, int seed) {
+        Random rand = new Random(seed);
+        int n = Math.max(batch, 1);
+        long[] req = new long[n];
+        int[] freqs = new int[n];
+        try {
+            for(int r = -warmup; r < latency.length; r++) {
+                if(r == 0) {
+                    warm.await();
+                }
+                for(int i = 0; i < n; i++) {
+                    req[i] = keys[rand.nextInt(keys.length)];
+                }
+                long t0 = System.nanoTime();
+                if(batch > 0) {
+                    conn.batch(tree, req, n, freqs);
+                }
+                else {
+                    conn.lookup(tree, req[0]);
+                }
+                if(r >= 0) {
+                    latency[r] = System.nanoTime() - t0;
+                }
+            }
+            conn.close();
+        } catch (IOException ex) {
+            System.err.println("request failed: " + ex.getMessage() + ".  Exiting.");
+            System.exit(1);
+        } catch (InterruptedException | BrokenBarrierException ex) {
+            System.exit(1);
+        }
+    }
+
+    // value at fraction p of the sorted array
+    static long percentile(long[] sorted, double p) {
+        int i = (int)Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,432 @@
+package genebank;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+public class GeneBankSearch {
+
+    static final int PARALLEL_BLOCK = 4096; // queries per task without --batch
+
+    // latency of every lookup under --stats, else null.  A sorted block of
+    // queries is timed as a whole and its time shared evenly by its keys.
+    static LatencyHistogram lookups;
+    // the tree's bloom filter if it has one; lookups it rules out skip the
+    // tree, and are counted under --stats
+    static BloomFilter bloom;
+    static LongAdder ruled_out = new LongAdder();
+
+    public static void main(String[] argv) {
+        //
+        // Process command line args
+        //
+        String use = "java genebank.GeneBankSearch [--mmap] [--canonical] [--batch <queries>] [--threads <n>] [--top <n>] [--stats] <0/1(no/with Cache)> <btree file> [<query file>] [<cache size>] [<debug level>]";
+        Options args = new Options(argv, use, new String[] {"--mmap", "--canonical", "--stats"}, new String[] {"--batch", "--threads", "--top"});
+        // print the n most frequent k-mers instead of answering queries
+        int top = args.get_int("--top", 0);
+        if(args.size() < (top > 0 ? 2 : 3) || top < 0) {
+            System.err.println("use " + use);
+            System.exit(1);
+        }
+        int use_cache = Integer.parseInt(args.get(0));
+        String btree_file = args.get(1);
+        String query_file = (args.size() > 2) ? args.get(2) : null;
+        int cache_size = 0;
+        int debug_level = 0;
+        if(args.size() > 3) {
+            cache_size = Integer.parseInt(args.get(3));
+        }
+        if(args.size() > 4) {
+            debug_level = Integer.parseInt(args.get(4));
+        }
+        // search a read-only memory mapping of the file, the OS page cache
+        // replaces the node cache
+        boolean mmap = args.has("--mmap");
+        // the tree holds min(kmer, reverse complement), look queries up the same way
+        boolean canonical = args.has("--canonical");
+        int flags = canonical ? BTree.CANONICAL : 0;
+        // look queries up in sorted blocks of this many, one tree walk each
+        int batch = args.get_int("--batch", 0);
+        if(batch < 0) {
+            System.err.println("batch must not be negative");
+            System.exit(1);
+        }
+        // look blocks of queries up on this many threads at once.  The
+        // threads share no node cache (see BTree.find), so the default is
+        // the single-threaded path that reads through the cache.
+        int threads = args.get_int("--threads", 1);
+        if(threads < 1) {
+            System.err.println("threads must be at least 1");
+            System.exit(1);
+        }
+        // print lookup throughput and latencies, and the node I/O of the tree
+        boolean stats = args.has("--stats");
+        if(stats) {
+            lookups = new LatencyHistogram();
+        }
+        if(use_cache != 0 && use_cache != 1) {
+            System.err.println("use " + use);
+            System.exit(1);
+        }
+        if(use_cache == 0) {
+            cache_size = 0;
+        }
+        else if(cache_size <= 0) {
+            cache_size = BTree.DEFAULT_CACHE_SIZE;
+        }
+
+        // k, t and the page size come from the file header
+        BTree.Header header = BTree.Header.read(btree_file);
+        int k = header.k;
+        if(k < 1 || k > 31) {
+            System.err.println("k must be between 1 and 31");
+            System.exit(1);
+        }
+        int t = header.t;
+        if((header.flags & BTree.BPLUS) != 0) {
+            // B+trees are only searched through the mapping
+            mmap = true;
+        }
+
+        if(top > 0) {
+            // one scan of the node file, split over the threads; the
+            // canonical flag is the file's, the queries don't need it
+            TopN best = new MappedBTree(btree_file).top(top, threads);
+            for(int i = 0; i < best.size; i++) {
+                System.out.println(GeneBankCreateBTree.key_decode(best.keys[i], k) + ": " + best.freqs[i]);
+            }
+            return;
+        }
+
+        bloom = BloomFilter.open(btree_file, false);
+        if(bloom != null) {
+            System.err.println("using bloom filter " + BloomFilter.sidecar(btree_file) + ", " + bloom.keys + " keys at false positive rate " + bloom.fpr);
+        }
+
+        //
+        // Point btree to disk btree_file
+        //
+        BTree btree = null;
+        MappedBTree mapped = null;
+        if(mmap) {
+            mapped = new MappedBTree(k, t, btree_file, flags);
+        }
+        else {
+            btree = new BTree(k, t, btree_file, cache_size, flags);
+            if(stats) {
+                btree.stats = new BTreeStats();
+            }
+        }
+        //if(debug_level > 0) {
+        //    btree.print();
+        //    btree.check_valid();
+        //}
+
+        //
+        // Process query file.  Each line is a k-mer, or the first bases of
+        // one followed by '*' for every k-mer in the tree starting with them.
+        // 
+        FileReader input = null;
+        try {
+            input = new FileReader(query_file);
+        } catch (FileNotFoundException ex) {
+            System.err.println("query file " + query_file + " not found.  Exiting.");
+            System.exit(1);
+        }
+        BufferedReader reader = new BufferedReader(input);
+        long start = System.nanoTime();
+        try {
+            if(threads > 1) {
+                search_parallel(reader, threads, batch, k, canonical, btree, mapped, debug_level);
+            }
+            else if(batch > 0) {
+                search_batches(reader, batch, k, canonical, btree, mapped, debug_level);
+            }
+            else {
+                search_each(reader, k, canonical, btree, mapped, debug_level);
+            }
+        } catch (IOException ex) {
+            System.err.println("Error reading query file " + query_file + ".  Exiting.");
+            System.exit(1);
+        }
+        if(btree != null) {
+            btree.close();
+        }
+        if(stats) {
+            print_stats(btree_file, System.nanoTime() - start, btree);
+        }
+    }
+
+    // the --stats summary, on stderr so it stays out of the results
+    static void print_stats(String btree_file, long nanos, BTree btree) {
+        long n = lookups.count();
+        System.err.println("stats for " + btree_file + ":");
+        System.err.printf("  %d lookups in %.3f s, %.0f lookups/s%n", n, nanos / 1e9, n / (nanos / 1e9));
+        System.err.println(LatencyHistogram.header());
+        System.err.println(lookups.summary("lookup"));
+        if(bloom != null) {
+            long out = ruled_out.sum();
+            System.err.printf("  bloom filter ruled out %d lookups (%.1f%%)%n", out, 100.0 * out / Math.max(n, 1));
+        }
+        if(btree != null) {
+            btree.stats.print(System.err);
+        }
+    }
+
+    // A block of lines of the query file, their keys and their counts.
+    // Prefix queries are answered when the block is printed; they have no
+    // key and are left out of the lookups and their stats.
+    static class Block {
+        String[] seqs;
+        long[] keys;        // query keys in file order
+        int[] freqs;        // freqs in file order
+        boolean[] prefix;   // line i is a prefix query
+        int n;
+        int lookups_n;      // lines that are not prefix queries
+
+        Block(int size) {
+            seqs = new String[size];
+            keys = new long[size];
+            freqs = new int[size];
+            prefix = new boolean[size];
+        }
+
+        // fill the block from reader, false if there was nothing left
+        boolean read(BufferedReader reader, int k, boolean canonical) throws IOException {
+            String line;
+            n = 0;
+            lookups_n = 0;
+            while (n < seqs.length && (line = reader.readLine()) != null) {
+                seqs[n] = line.toLowerCase();
+                prefix[n] = seqs[n].endsWith("*");
+                if(!prefix[n]) {
+                    long key = GeneBankCreateBTree.seq_encode(seqs[n]);
+                    keys[n] = canonical ? KmerScanner.canonical(key, k) : key;
+                    lookups_n++;
+                }
+                n++;
+            }
+            return n > 0;
+        }
+
+        // Sorts the keys and looks them all up in one walk of the tree, so
+        // the upper levels are read once per block instead of once per
+        // query.  concurrent uses the thread-safe read path of BTree.  Keys
+        // the bloom filter rules out are left out of the walk.
+        void lookup_sorted(BTree btree, MappedBTree mapped, boolean concurrent) {
+            long start = (lookups != null) ? System.nanoTime() : 0L;
+            long[] sorted = new long[n];
+            int[] order = new int[n];     // file position of each sorted key
+            int[] found = new int[n];     // freqs in sorted order
+            int m = 0;
+            for(int i = 0; i < n; i++) {
+                if(prefix[i] || (bloom != null && !bloom.might_contain(keys[i]))) {
+                    continue;
+                }
+                sorted[m] = keys[i];
+                order[m++] = i;
+            }
+            if(lookups != null) {
+                ruled_out.add(lookups_n - m);
+            }
+            Arrays.fill(freqs, 0, n, 0);
+            KmerTable.sort(sorted, order, 0, m - 1);
+            if(mapped != null) {
+                mapped.search_batch(sorted, m, found);
+            }
+            else if(concurrent) {
+                btree.find_batch(sorted, m, found);
+            }
+            else {
+                btree.search_batch(sorted, m, found);
+            }
+            for(int i = 0; i < m; i++) {
+                freqs[order[i]] = found[i];
+            }
+            if(lookups != null && lookups_n > 0) {
+                lookups.record((System.nanoTime() - start) / lookups_n, lookups_n);
+            }
+        }
+
+        // one thread-safe lookup per query
+        void lookup_each(BTree btree, MappedBTree mapped) {
+            for(int i = 0; i < n; i++) {
+                if(prefix[i]) {
+                    continue;
+                }
+                long start = (lookups != null) ? System.nanoTime() : 0L;
+                BTree.Hit h = null;
+                if(bloom == null || bloom.might_contain(keys[i])) {
+                    h = (mapped != null) ? mapped.find(keys[i]) : btree.find(keys[i]);
+                }
+                else if(lookups != null) {
+                    ruled_out.increment();
+                }
+                freqs[i] = (h != null) ? h.freq : 0;
+                if(lookups != null) {
+                    lookups.record(System.nanoTime() - start);
+                }
+            }
+        }
+
+        // print the hits in query order
+        void print(int k, boolean canonical, BTree btree, MappedBTree mapped, int debug_level) {
+            for(int i = 0; i < n; i++) {
+                if(prefix[i]) {
+                    print_prefix(seqs[i], k, canonical, btree, mapped, debug_level);
+                }
+                else if(freqs[i] > 0) {
+                    print_hit(seqs[i], keys[i], freqs[i], k, debug_level);
+                }
+            }
+        }
+    }
+
+    // Looks the queries up one line at a time, through the node cache of
+    // btree or in the mapping.
+    static void search_each(BufferedReader reader, int k, boolean canonical, BTree btree, MappedBTree mapped, int debug_level) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String search_seq = line.toLowerCase();
+            if(search_seq.endsWith("*")) {
+                print_prefix(search_seq, k, canonical, btree, mapped, debug_level);
+                continue;
+            }
+            long search_key = GeneBankCreateBTree.seq_encode(search_seq);
+            if(canonical) {
+                search_key = KmerScanner.canonical(search_key, k);
+            }
+            if(debug_level > 0) {
+                System.err.println("Searching for sequence " + search_seq + " = " + search_key);
+            }
+            long lookup_start = (lookups != null) ? System.nanoTime() : 0L;
+            int f = 0;
+            if(bloom != null && !bloom.might_contain(search_key)) {
+                // certainly not in the tree
+                if(lookups != null) {
+                    ruled_out.increment();
+                }
+            }
+            else if(mapped != null) {
+                f = mapped.search(search_key);
+            }
+            else {
+                BTree.BTreeNode y = btree.search(search_key);
+                f = (y != null) ? y.freqs[y.search_idx] : 0;
+            }
+            if(lookups != null) {
+                lookups.record(System.nanoTime() - lookup_start);
+            }
+            if(f > 0) {
+                print_hit(search_seq, search_key, f, k, debug_level);
+            }
+        }
+    }
+
+    // one line of results: the k-mer and its freq, or more on stderr
+    // when debugging
+    static void print_hit(String seq, long key, int freq, int k, int debug_level) {
+        String decode = GeneBankCreateBTree.key_decode(key, k);
+        if(debug_level > 0) {
+            System.err.println("search_seq = " + seq + ", key =  " + key + ", decode = " + decode + ", freq = " +  freq);
+        }
+        else {
+            System.out.println(decode + ": " +  freq);
+        }
+    }
+
+    // Reads the queries in blocks of batch lines and looks up each block
+    // with one walk of the tree.
+    static void search_batches(BufferedReader reader, int batch, int k, boolean canonical, BTree btree, MappedBTree mapped, int debug_level) throws IOException {
+        Block block = new Block(batch);
+        while (block.read(reader, k, canonical)) {
+            block.lookup_sorted(btree, mapped, false);
+            block.print(k, canonical, btree, mapped, debug_level);
+        }
+    }
+
+    // Hands blocks of queries to a pool of threads, which look them up
+    // through the concurrent read path, so many node reads are in flight at
+    // once.  Blocks are printed in file order as they complete; at most two
+    // per thread are read ahead.
+    static void search_parallel(BufferedReader reader, int threads, int batch, int k, boolean canonical, final BTree btree, final MappedBTree mapped, int debug_level) throws IOException {
+        final boolean sorted = batch > 0;
+        int size = sorted ? batch : PARALLEL_BLOCK;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+        while (true) {
+            final Block block = new Block(size);
+            if(!block.read(reader, k, canonical)) {
+                break;
+            }
+            pending.add(pool.submit(() -> {
+                if(sorted) {
+                    block.lookup_sorted(btree, mapped, true);
+                }
+                else {
+                    block.lookup_each(btree, mapped);
+                }
+                return block;
+            }));
+            if(pending.size() >= 2 * threads) {
+                done(pending.poll()).print(k, canonical, btree, mapped, debug_level);
+            }
+        }
+        while (!pending.isEmpty()) {
+            done(pending.poll()).print(k, canonical, btree, mapped, debug_level);
+        }
+        pool.shutdown();
+    }
+
+    // Prints every k-mer in the tree that starts with the bases before the
+    // '*' of a query line like "acgt*", in key order.  seq_encode puts the
+    // first base in the top bits, so for a prefix of m bases these are the
+    // keys from prefix << 2(k-m) up to the same with all lower bits set.
+    // A query that can't be answered gets an error and no hits, and the
+    // rest of the query file goes on.
+    static void print_prefix(final String seq, final int k, boolean canonical, BTree btree, MappedBTree mapped, final int debug_level) {
+        String prefix = seq.substring(0, seq.length() - 1);
+        if(canonical) {
+            // a k-mer stored as its reverse complement ends with the
+            // complement of the prefix, which is not a key range
+            System.err.println("prefix query " + seq + " needs a tree built without --canonical, skipped");
+            return;
+        }
+        if(prefix.length() > k) {
+            System.err.println("prefix query " + seq + " is longer than k = " + k + ", skipped");
+            return;
+        }
+        int shift = 2*(k - prefix.length());
+        long lo = GeneBankCreateBTree.seq_encode(prefix) << shift;
+        long hi = lo | ((1L << shift) - 1);
+        BTree.KeyVisitor v = (key, freq) -> {
+            print_hit(seq, key, freq, k, debug_level);
+            return true;
+        };
+        if(mapped != null) {
+            mapped.range(lo, hi, v);
+        }
+        else {
+            btree.range(lo, hi, v);
+        }
+    }
+
+    private static Block done(Future<Block> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            System.err.println("search failed: " + ex.getCause() + ".  Exiting.");
+            System.exit(1);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package genebank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Answers lookups against one or more btree files over a local socket, so
+// callers don't pay JVM startup, header parsing and a cold tree on every
+// run.  The files are memory mapped once and stay mapped, which keeps the
+// hot nodes in the page cache, and each connection gets its own thread on
+// the thread-safe read path of MappedBTree.
+//
+// Protocol, all big-endian.  Every message is an int byte count followed by
+// that many bytes.  A request starts with an op byte, a response with a
+// status byte, OK or BAD_REQUEST (then nothing else):
+//   INFO                              -> int ntrees, then for each tree
+//                                        int k, int t, int flags, UTF file
+//   LOOKUP int tree, long key         -> int freq, 0 if absent
+//   BATCH  int tree, int n, n x long  -> n x int freq
+// Keys are encoded as by GeneBankCreateBTree.seq_encode; queries against a
+// canonical tree are canonicalized here.
+public class GeneBankServer {
+
+    static final byte INFO = 0;
+    static final byte LOOKUP = 1;
+    static final byte BATCH = 2;
+    static final byte OK = 0;
+    static final byte BAD_REQUEST = 1;
+    static final int MAX_BATCH = 1 << 20; // keys in one BATCH request
+
+    MappedBTree[] trees;
+    String[] names;
+
+    public static void main(String[] argv) {
+        String use = "java genebank.GeneBankServer (--socket <path> | --port <port>) <btree file> [<btree file>...]";
+        Options args = new Options(argv, use, new String[] {}, new String[] {"--socket", "--port"});
+        if(args.size() < 1 || args.has("--socket") == args.has("--port")) {
+            System.err.println("use " + use);
+            System.exit(1);
+        }
+        GeneBankServer server = new GeneBankServer();
+        server.trees = new MappedBTree[args.size()];
+        server.names = new String[args.size()];
+        for(int i = 0; i < args.size(); i++) {
+            server.names[i] = args.get(i);
+            server.trees[i] = new MappedBTree(args.get(i));
+            System.err.println("tree " + i + ": " + args.get(i) + "  k = " + server.trees[i].k + ", t = " + server.trees[i].t);
+        }
+
+        ServerSocketChannel listener = null;
+        try {
+            if(args.has("--socket")) {
+                Path path = Path.of(args.get("--socket", null));
+                Files.deleteIfExists(path); // left over from an earlier run
+                listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                listener.bind(UnixDomainSocketAddress.of(path));
+                path.toFile().deleteOnExit();
+            }
+            else {
+                listener = ServerSocketChannel.open();
+                listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), args.get_int("--port", 0)));
+            }
+            System.err.println("listening on " + listener.getLocalAddress());
+        } catch (IOException ex) {
+            System.err.println("Can't listen: " + ex.getMessage() + ".  Exiting.");
+            System.exit(1);
+        }
+
+        while(true) {
+            try {
+                final SocketChannel ch = listener.accept();
+                Thread th = new Thread(() -> server.serve(ch));
+                th.setDaemon(true);
+                th.start();
+            } catch (IOException ex) {
+                System.err.println("accept failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    // the address given by --socket or --port
+    static SocketAddress address(Options args) {
+        if(args.has("--socket")) {
+            return UnixDomainSocketAddress.of(args.get("--socket", null));
+        }
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), args.get_int("--port", 0));
+    }
+
+    // answer requests on one connection until the client closes it
+    void serve(SocketChannel ch) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+            // BATCH keys are sorted and looked up in one walk of the tree
+            long[] keys = new long[0];
+            int[] order = new int[0];   // request position of each sorted key
+            int[] found = new int[0];   // freqs in sorted order
+            int[] freqs = new int[0];   // freqs in request order
+            while(true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if(len < 1 || len > 9 + 8*MAX_BATCH) {
+                    break;  // not our protocol
+                }
+                byte op = in.readByte();
+                if(op == INFO && len == 1) {
+                    ByteArrayOutputStream b = new ByteArrayOutputStream();
+                    DataOutputStream info = new DataOutputStream(b);
+                    info.writeByte(OK);
+                    info.writeInt(trees.length);
+                    for(int i = 0; i < trees.length; i++) {
+                        info.writeInt(trees[i].k);
+                        info.writeInt(trees[i].t);
+                        info.writeInt(trees[i].flags);
+                        info.writeUTF(names[i]);
+                    }
+                    out.writeInt(b.size());
+                    b.writeTo(out);
+                }
+                else if(op == LOOKUP && len == 13) {
+                    MappedBTree tree = tree(in.readInt());
+                    long key = in.readLong();
+                    if(tree == null) {
+                        error(out);
+                    }
+                    else {
+                        out.writeInt(5);
+                        out.writeByte(OK);
+                        out.writeInt(tree.search(canonical(tree, key)));
+                    }
+                }
+                else if(op == BATCH && len >= 9) {
+                    MappedBTree tree = tree(in.readInt());
+                    int n = in.readInt();
+                    if(n < 0 || n > MAX_BATCH || len != 9 + 8*n) {
+                        in.skipNBytes(len - 9);
+                        error(out);
+                        out.flush();
+                        continue;
+                    }
+                    if(keys.length < n) {
+                        keys = new long[n];
+                        order = new int[n];
+                        found = new int[n];
+                        freqs = new int[n];
+                    }
+                    for(int i = 0; i < n; i++) {
+                        keys[i] = in.readLong();
+                        order[i] = i;
+                    }
+                    if(tree == null) {
+                        error(out);
+                    }
+                    else {
+                        for(int i = 0; i < n; i++) {
+                            keys[i] = canonical(tree, keys[i]);
+                        }
+                        KmerTable.sort(keys, order, 0, n - 1);
+                        tree.search_batch(keys, n, found);
+                        for(int i = 0; i < n; i++) {
+                            freqs[order[i]] = found[i];
+                        }
+                        out.writeInt(1 + 4*n);
+                        out.writeByte(OK);
+                        for(int i = 0; i < n; i++) {
+                            out.writeInt(freqs[i]);
+                        }
+                    }
+                }
+                else {
+                    // unknown request, skip it
+                    in.skipNBytes(len - 1);
+                    error(out);
+                }
+                out.flush();
+            }
+        } catch (IOException ex) {
+            System.err.println("connection failed: " + ex.getMessage());
+        }
+        try {
+            ch.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    private MappedBTree tree(int i) {
+        return (i >= 0 && i < trees.length) ? trees[i] : null;
+    }
+
+    private static long canonical(MappedBTree tree, long key) {
+        return ((tree.flags & BTree.CANONICAL) != 0) ? KmerScanner.canonical(key, tree.k) : key;
+    }
+
+    private static void error(DataOutputStream out) throws IOException {
+        out.writeInt(1);
+        out.writeByte(BAD_REQUEST);
+    }
+}
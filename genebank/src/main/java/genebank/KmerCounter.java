@@ -0,0 +1,279 @@
+package genebank;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts the k-mers of a streamed gbk file on a ForkJoinPool.
+//
+// The bases of all records are packed into fixed-size chunks, with a
+// separator byte between records (the scanner starts over on it).  Each
+// full chunk is counted by a pool task, and the next chunk starts with the
+// last k-1 bases of the previous one (k the longest sequence length).  A
+// task only counts the k-mers that end after those carried bases, so a
+// k-mer of any length that straddles the cut is counted exactly once: in
+// the chunk where it ends.  Chunk buffers come
+// from a small free list, which bounds the bases in flight and makes the
+// parser wait when the workers fall behind.
+//
+// Every worker thread counts into its own tables, one per sequence length
+// and partition of its key space by the top key bits.  finish() then
+// merges each partition across the workers and sorts it, in parallel; the
+// partitions in order give all keys of a length in ascending order.
+//
+// With a memory limit, the tables are spilled whenever they take more than
+// half of it (the other half is for merging them): the counting waits, the
+// merged partitions of each length go to a sorted run file of KmerRuns, and
+// the workers start over with empty tables.  The tables start small enough
+// to take at most an eighth of the limit, and each one adds the bytes of
+// its arrays to a shared counter as it grows, which the parser checks.
+class KmerCounter implements GbkParser.BaseConsumer {
+
+    static final int CHUNK_BYTES = 1 << 20;
+    static final byte[] SEPARATOR = {'|'};
+    static final int TABLE_CAPACITY = 1 << 10;  // of a new table without a memory limit
+    static final int MIN_CAPACITY = 32;         // smallest table KmerTable makes
+
+    int[] ks;           // sequence lengths, ascending
+    boolean canonical;  // count min(kmer, reverse complement)
+    int carry;          // bases repeated at the start of the next chunk
+    int nparts;
+    int[] part_shift;   // key >>> part_shift[j] is the partition
+    ForkJoinPool pool;
+    ArrayBlockingQueue<byte[]> free;
+    byte[] chunk;
+    int fill;
+    int carried;        // bases at the start of chunk taken from the last one
+    long max_bytes;     // memory limit for the tables, 0 for none
+    int capacity;       // of each new table
+    LongAdder used = new LongAdder();   // bytes of the tables of all workers
+    KmerRuns[] runs;    // spilled runs of each sequence length, null before the first spill
+
+    // tables of every worker, indexed by sequence length and partition
+    ArrayList<KmerTable[][]> workers = new ArrayList<>();
+    ThreadLocal<KmerTable[][]> local = ThreadLocal.withInitial(this::new_tables);
+    volatile Throwable failed;
+
+    public KmerCounter(int[] ks, int threads, boolean canonical) {
+        this(ks, threads, canonical, 0);
+    }
+
+    public KmerCounter(int[] ks, int threads, boolean canonical, long max_bytes) {
+        this.ks = ks;
+        this.canonical = canonical;
+        this.max_bytes = max_bytes;
+        carry = ks[ks.length - 1] - 1;
+        int bits = Math.min(6, 2 * ks[0]);
+        nparts = 1 << bits;
+        part_shift = new int[ks.length];
+        for (int j = 0; j < ks.length; j++) {
+            part_shift[j] = 2 * ks[j] - bits;
+        }
+        capacity = TABLE_CAPACITY;
+        if (max_bytes > 0) {
+            capacity = capacity(max_bytes, threads);
+        }
+        pool = new ForkJoinPool(threads);
+        free = new ArrayBlockingQueue<>(2 * threads + 1);
+        for (int i = 0; i < 2 * threads + 1; i++) {
+            free.add(new byte[CHUNK_BYTES]);
+        }
+    }
+
+    // The capacity of new tables under a memory limit: the largest power of
+    // two at which the tables of all workers take at most an eighth of it.
+    // Exits if even the smallest tables would leave them no room to grow
+    // before the first spill, and warns if a round of chunks can add more
+    // k-mers than fit, which means a spill after nearly every chunk.
+    private int capacity(long max_bytes, int threads) {
+        long tables = (long)threads * ks.length * nparts;
+        long per = max_bytes / 8 / (12L * tables);
+        int cap = (int)Math.max(MIN_CAPACITY, Math.min(TABLE_CAPACITY, Long.highestOneBit(Math.max(per, 1))));
+        long floor = 4 * 12L * MIN_CAPACITY * tables;
+        if (max_bytes < floor) {
+            System.err.println("max memory must be at least " + ((floor + (1 << 20) - 1) >> 20) + " MB for "
+                + threads + " threads and " + ks.length + " sequence lengths.  Exiting.");
+            System.exit(1);
+        }
+        // table bytes that a chunk on every thread can add at most, one new
+        // k-mer per base and length at the load of a full table
+        long round = 0;
+        for (int k : ks) {
+            round += (long)threads * Math.min(CHUNK_BYTES, 1L << Math.min(2*k, 40)) * 12 * 10 / 7;
+        }
+        if (max_bytes < 2 * round) {
+            System.err.println("warning: below " + ((2 * round) >> 20) + " MB of max memory the counts may be spilled after nearly every chunk");
+        }
+        return cap;
+    }
+
+    private KmerTable[][] new_tables() {
+        KmerTable[][] parts = new KmerTable[ks.length][nparts];
+        clear(parts);
+        synchronized (workers) {
+            workers.add(parts);
+        }
+        return parts;
+    }
+
+    private void clear(KmerTable[][] parts) {
+        for (int j = 0; j < ks.length; j++) {
+            for (int p = 0; p < nparts; p++) {
+                parts[j][p] = new KmerTable(capacity, used);
+            }
+        }
+    }
+
+    public void start_record() {
+        if (fill > 0) {
+            bases(SEPARATOR, 0, 1);
+        }
+    }
+
+    public void bases(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (chunk == null) {
+                chunk = take();
+                fill = 0;
+                carried = 0;
+            }
+            int n = Math.min(len, chunk.length - fill);
+            System.arraycopy(b, off, chunk, fill, n);
+            fill += n;
+            off += n;
+            len -= n;
+            if (fill == chunk.length) {
+                byte[] next = take();
+                System.arraycopy(chunk, fill - carry, next, 0, carry);
+                submit(chunk, carried, fill);
+                chunk = next;
+                fill = carry;
+                carried = carry;
+                if (max_bytes > 0 && 2 * used.sum() > max_bytes) {
+                    spill();
+                }
+            }
+        }
+    }
+
+    public void end_record() {
+    }
+
+    private byte[] take() {
+        try {
+            return free.take();
+        } catch (InterruptedException ex) {
+            System.err.println("interrupted while counting. Exiting");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private void submit(final byte[] buf, final int skip, final int len) {
+        pool.execute(() -> {
+            try {
+                final KmerTable[][] parts = local.get();
+                KmerScanner scanner = new KmerScanner(ks, canonical) {
+                    void kmer(int j, long key) {
+                        parts[j][(int)(key >>> part_shift[j])].add(key, 1);
+                    }
+                };
+                scanner.start_record();
+                scanner.roll(buf, 0, skip);
+                scanner.bases(buf, skip, len - skip);
+            } catch (Throwable ex) {
+                failed = ex;
+            } finally {
+                free.add(buf);
+            }
+        });
+    }
+
+    // Waits for the counting tasks and returns the counted keys of each
+    // sequence length: the merged partitions, each sorted by sort(), or the
+    // runs spilled to disk if the memory limit was reached.
+    public KmerRuns[] finish() {
+        if (chunk != null && fill > carried) {
+            submit(chunk, carried, fill);
+            chunk = null;
+        }
+        pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS);
+        check();
+        if (runs != null) {
+            spill();
+        }
+        else {
+            runs = new KmerRuns[ks.length];
+            for (int j = 0; j < ks.length; j++) {
+                runs[j] = new KmerRuns(merge(j));
+            }
+        }
+        pool.shutdown();
+        return runs;
+    }
+
+    // Waits for the counting tasks, writes a run of each sequence length and
+    // empties the tables.
+    private void spill() {
+        pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS);
+        check();
+        if (runs == null) {
+            runs = new KmerRuns[ks.length];
+            for (int j = 0; j < ks.length; j++) {
+                runs[j] = new KmerRuns();
+            }
+        }
+        for (int j = 0; j < ks.length; j++) {
+            runs[j].spill(merge(j));
+        }
+        used.reset();
+        for (KmerTable[][] w : workers) {
+            clear(w);
+        }
+    }
+
+    // Merges each partition of sequence length j across the workers and
+    // sorts it, in parallel.  The workers' tables of length j are dropped.
+    private KmerTable[] merge(final int j) {
+        final KmerTable[] result = new KmerTable[nparts];
+        ArrayList<ForkJoinTask<?>> merges = new ArrayList<>();
+        for (int p = 0; p < nparts; p++) {
+            final int q = p;
+            merges.add(pool.submit(() -> {
+                try {
+                    // the first non-empty table is taken over, the rest
+                    // are added into it
+                    KmerTable dest = new KmerTable(16);
+                    for (KmerTable[][] w : workers) {
+                        if (dest.size() == 0) {
+                            dest = w[j][q];
+                        }
+                        else {
+                            dest.merge(w[j][q]);
+                        }
+                        w[j][q] = null;
+                    }
+                    dest.sort();
+                    result[q] = dest;
+                } catch (Throwable ex) {
+                    failed = ex;
+                }
+            }));
+        }
+        for (ForkJoinTask<?> m : merges) {
+            m.join();
+        }
+        check();
+        return result;
+    }
+
+    private void check() {
+        if (failed != null) {
+            System.err.println("counting failed: " + failed);
+            System.exit(1);
+        }
+    }
+}
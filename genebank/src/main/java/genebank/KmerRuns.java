@@ -0,0 +1,323 @@
+package genebank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+// The counted k-mers of one sequence length as sorted runs of (key, count).
+// Without a memory limit there is a single run held in memory, the merged
+// partitions of KmerCounter.  With one, KmerCounter spills its tables to a
+// run file each time they fill up, and cursor() merges the runs back into
+// one ascending stream, adding up the counts of equal keys, so the keys
+// never have to be in memory all at once.
+//
+// Spilled runs are merged in tiers so a cursor never has too many open:
+// once MAX_RUNS runs of a tier exist they are merged into one run of the
+// next tier.  Each count is rewritten once per tier, log_64 of the number
+// of spills times, instead of once every 64 spills.  cursor() merges the
+// smallest runs first if more than MAX_RUNS are left over in all tiers.
+// Counts are added up saturating at Integer.MAX_VALUE.
+class KmerRuns {
+
+    static final int MAX_RUNS = 64;     // runs merged at once
+    static final int RUN_BUFFER = 1 << 16;
+
+    KmerTable[] parts;                  // the in-memory run, or null
+    ArrayList<File> files = new ArrayList<>();
+    ArrayList<Long> sizes = new ArrayList<>(); // pairs in each file
+    ArrayList<Integer> tiers = new ArrayList<>(); // merges that went into each file
+    long entries;                       // pairs in all runs, equal keys in different runs counted apiece
+
+    KmerRuns() {
+    }
+
+    KmerRuns(KmerTable[] parts) {
+        this.parts = parts;
+        for (KmerTable part : parts) {
+            entries += part.size();
+        }
+    }
+
+    // Writes parts, sorted and in key order, to a new run file of tier 0,
+    // and merges every tier that is full.
+    public void spill(KmerTable[] parts) {
+        File f = new_file();
+        long n = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), RUN_BUFFER))) {
+            for (KmerTable part : parts) {
+                for (int i = 0; i < part.size(); i++) {
+                    out.writeLong(part.keys[i]);
+                    out.writeInt(part.counts[i]);
+                }
+                n += part.size();
+            }
+        } catch (IOException ex) {
+            fail(f, ex);
+        }
+        add_file(f, n, 0);
+        for (int tier = 0; ; tier++) {
+            ArrayList<Integer> full = new ArrayList<>();
+            for (int r = 0; r < files.size(); r++) {
+                if (tiers.get(r) == tier) {
+                    full.add(r);
+                }
+            }
+            if (full.size() < MAX_RUNS) {
+                break;
+            }
+            merge(full, tier + 1);
+        }
+    }
+
+    // Merges the runs at the positions picked, ascending, into one run of
+    // the given tier.
+    private void merge(ArrayList<Integer> picked, int tier) {
+        KmerRuns some = new KmerRuns();
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            int r = picked.get(i);
+            entries -= sizes.get(r);
+            some.add_file(files.remove(r), sizes.remove(r), tiers.remove(r));
+        }
+        File f = new_file();
+        long n = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), RUN_BUFFER))) {
+            for (Cursor c = some.cursor(); c.has(); c.next()) {
+                out.writeLong(c.key());
+                out.writeInt(c.count());
+                n++;
+            }
+        } catch (IOException ex) {
+            fail(f, ex);
+        }
+        some.delete();
+        add_file(f, n, tier);
+    }
+
+    private void add_file(File f, long n, int tier) {
+        files.add(f);
+        sizes.add(n);
+        tiers.add(tier);
+        entries += n;
+    }
+
+    private static File new_file() {
+        try {
+            File f = File.createTempFile("kmers", ".run");
+            f.deleteOnExit();
+            return f;
+        } catch (IOException ex) {
+            System.err.println("Can't create a k-mer run file: " + ex.getMessage() + ".  Exiting.");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static void fail(File f, IOException ex) {
+        System.err.println("Can't access k-mer run file " + f + ": " + ex.getMessage() + ".  Exiting.");
+        System.exit(1);
+    }
+
+    // Number of distinct keys.  Exact for a single in-memory run, the runs
+    // are read through once otherwise.
+    public long count() {
+        if (files.isEmpty()) {
+            return entries;
+        }
+        long n = 0;
+        for (Cursor c = cursor(); c.has(); c.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    public void delete() {
+        for (File f : files) {
+            f.delete();
+        }
+        files.clear();
+        sizes.clear();
+        tiers.clear();
+        parts = null;
+    }
+
+    public Cursor cursor() {
+        if (files.size() > MAX_RUNS) {
+            // the smallest runs into one, leaving MAX_RUNS
+            Integer[] order = new Integer[files.size()];
+            for (int r = 0; r < order.length; r++) {
+                order[r] = r;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(sizes.get(a), sizes.get(b)));
+            ArrayList<Integer> smallest = new ArrayList<>(Arrays.asList(order).subList(0, files.size() - MAX_RUNS + 1));
+            Collections.sort(smallest);
+            int tier = 0;
+            for (int r : smallest) {
+                tier = Math.max(tier, tiers.get(r) + 1);
+            }
+            merge(smallest, tier);
+        }
+        return new Cursor();
+    }
+
+    // The keys of all runs in ascending order, each once with its total
+    // count:  for (Cursor c = runs.cursor(); c.has(); c.next()) ...
+    // The runs are merged through a binary min-heap of their next keys.
+    class Cursor {
+        DataInputStream[] in;   // run r >= 1 is files[r-1]; run 0 is parts
+        long[] left;            // pairs not yet read from each run
+        int p;                  // position of run 0 in parts
+        int i;
+        long[] head;            // next key of each run
+        int[] head_count;
+        int[] heap;             // runs with a next key, smallest head first
+        int size;
+        long key;
+        int count;              // saturated at Integer.MAX_VALUE
+        boolean has;
+
+        Cursor() {
+            int nruns = files.size() + 1;
+            in = new DataInputStream[nruns];
+            left = new long[nruns];
+            head = new long[nruns];
+            head_count = new int[nruns];
+            heap = new int[nruns];
+            try {
+                for (int r = 1; r < nruns; r++) {
+                    in[r] = new DataInputStream(new BufferedInputStream(new FileInputStream(files.get(r - 1)), RUN_BUFFER));
+                    left[r] = sizes.get(r - 1);
+                }
+            } catch (IOException ex) {
+                System.err.println("Can't read k-mer runs: " + ex.getMessage() + ".  Exiting.");
+                System.exit(1);
+            }
+            for (int r = 0; r < nruns; r++) {
+                if (advance(r)) {
+                    heap[size++] = r;
+                    up(size - 1);
+                }
+            }
+            next();
+        }
+
+        public boolean has() {
+            return has;
+        }
+
+        public long key() {
+            return key;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        // moves to the next key, adding up its count over the runs
+        public void next() {
+            has = size > 0;
+            if (!has) {
+                close();
+                return;
+            }
+            key = head[heap[0]];
+            long sum = 0;
+            while (size > 0 && head[heap[0]] == key) {
+                int r = heap[0];
+                sum += head_count[r];
+                if (advance(r)) {
+                    down(0);
+                }
+                else {
+                    heap[0] = heap[--size];
+                    down(0);
+                }
+            }
+            count = (int)Math.min(sum, Integer.MAX_VALUE);
+        }
+
+        // reads the next pair of run r into head, false at its end
+        private boolean advance(int r) {
+            if (r == 0) {
+                if (parts == null) {
+                    return false;
+                }
+                while (p < parts.length && i >= parts[p].size()) {
+                    p++;
+                    i = 0;
+                }
+                if (p == parts.length) {
+                    return false;
+                }
+                head[0] = parts[p].keys[i];
+                head_count[0] = parts[p].counts[i];
+                i++;
+                return true;
+            }
+            if (left[r] == 0) {
+                return false;
+            }
+            try {
+                head[r] = in[r].readLong();
+                head_count[r] = in[r].readInt();
+            } catch (IOException ex) {
+                System.err.println("Can't read k-mer runs: " + ex.getMessage() + ".  Exiting.");
+                System.exit(1);
+            }
+            left[r]--;
+            return true;
+        }
+
+        private void up(int j) {
+            while (j > 0) {
+                int q = (j - 1) / 2;
+                if (head[heap[q]] <= head[heap[j]]) {
+                    break;
+                }
+                swap(j, q);
+                j = q;
+            }
+        }
+
+        private void down(int j) {
+            while (true) {
+                int c = 2 * j + 1;
+                if (c >= size) {
+                    break;
+                }
+                if (c + 1 < size && head[heap[c + 1]] < head[heap[c]]) {
+                    c++;
+                }
+                if (head[heap[j]] <= head[heap[c]]) {
+                    break;
+                }
+                swap(j, c);
+                j = c;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int r = heap[a];
+            heap[a] = heap[b];
+            heap[b] = r;
+        }
+
+        private void close() {
+            for (DataInputStream s : in) {
+                if (s != null) {
+                    try {
+                        s.close();
+                    } catch (IOException ex) {
+                    }
+                }
+            }
+        }
+    }
+}
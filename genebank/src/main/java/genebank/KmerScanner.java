@@ -0,0 +1,117 @@
+package genebank;
+
+import java.util.Arrays;
+
+// Rolls a 2-bit key over the bases of each record of a streamed gbk
+// file and hands the key of every k-mer made of a, c, g and t only to
+// kmer().  Each base costs a shift and an or; an 'n' or any other
+// ambiguous base starts the window over.
+//
+// Several sequence lengths can be scanned at once: the key is rolled for
+// the longest one and the key of a shorter k-mer ending at the same base
+// is just its low 2k bits.
+//
+// In canonical mode the key handed over is the smaller of the k-mer and
+// its reverse complement.  With a=0, c=1, g=2, t=3 the complement of a
+// base is 3 - code, so the reverse complement is rolled alongside the key,
+// each new base going in at the top.  The reverse complement of a shorter
+// k-mer is the top 2k bits of the longest one.
+abstract class KmerScanner implements GbkParser.BaseConsumer {
+    static final byte[] CODE = new byte[256];
+    static {
+        Arrays.fill(CODE, (byte)-1);
+        CODE['a'] = 0;
+        CODE['c'] = 1;
+        CODE['g'] = 2;
+        CODE['t'] = 3;
+    }
+
+    int[] ks;       // sequence lengths, ascending
+    long[] masks;   // low 2k bits of each, k <= 31 keeps keys positive
+    int[] shifts;   // rc >>> shifts[j] is the reverse complement of ks[j] bases
+    long mask;      // mask of the longest
+    int top;        // bit position of the newest base in rc
+    boolean canonical;
+    long key;
+    long rc;        // reverse complement of key
+    int good;       // bases in key since the last reset
+
+    KmerScanner(int k) {
+        this(new int[] {k}, false);
+    }
+
+    KmerScanner(int[] ks, boolean canonical) {
+        this.ks = ks;
+        this.canonical = canonical;
+        int kmax = ks[ks.length - 1];
+        masks = new long[ks.length];
+        shifts = new int[ks.length];
+        for (int j = 0; j < ks.length; j++) {
+            masks[j] = (1L << 2*ks[j]) - 1;
+            shifts[j] = 2*(kmax - ks[j]);
+        }
+        mask = masks[ks.length - 1];
+        top = 2*(kmax - 1);
+    }
+
+    // reverse complement of a k-mer key
+    static long revcomp(long key, int k) {
+        long x = ~key;
+        // reverse the order of the 2-bit bases
+        x = ((x >>> 2) & 0x3333333333333333L) | ((x & 0x3333333333333333L) << 2);
+        x = ((x >>> 4) & 0x0f0f0f0f0f0f0f0fL) | ((x & 0x0f0f0f0f0f0f0f0fL) << 4);
+        x = Long.reverseBytes(x);
+        return x >>> (64 - 2*k);
+    }
+
+    // smaller of a k-mer key and its reverse complement
+    static long canonical(long key, int k) {
+        return Math.min(key, revcomp(key, k));
+    }
+
+    // key of a k-mer of length ks[j] ending at the current base
+    abstract void kmer(int j, long key);
+
+    public void start_record() {
+        key = 0;
+        rc = 0;
+        good = 0;
+    }
+
+    public void bases(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            int code = CODE[b[i] & 0xff];
+            if (code < 0) {
+                good = 0;
+                continue;
+            }
+            key = ((key << 2) | code) & mask;
+            rc = (rc >>> 2) | ((long)(3 - code) << top);
+            good++;
+            for (int j = 0; j < ks.length && ks[j] <= good; j++) {
+                long fwd = key & masks[j];
+                if (canonical) {
+                    fwd = Math.min(fwd, rc >>> shifts[j]);
+                }
+                kmer(j, fwd);
+            }
+        }
+    }
+
+    // take in bases without reporting the k-mers that end in them
+    public void roll(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            int code = CODE[b[i] & 0xff];
+            if (code < 0) {
+                good = 0;
+                continue;
+            }
+            key = ((key << 2) | code) & mask;
+            rc = (rc >>> 2) | ((long)(3 - code) << top);
+            good++;
+        }
+    }
+
+    public void end_record() {
+    }
+}
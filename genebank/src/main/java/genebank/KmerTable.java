@@ -0,0 +1,159 @@
+package genebank;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts 2-bit encoded k-mer keys in an open addressing table built from
+// two primitive arrays, so a distinct k-mer costs 12 bytes of table instead
+// of a String, a boxed Integer and a HashMap entry.  Keys are never negative,
+// so -1 marks an empty slot.
+class KmerTable {
+
+    long[] keys;
+    int[] counts;
+    int size;
+    int shift;      // 64 - log2(capacity)
+    int limit;      // grow when size reaches this
+    LongAdder usage; // if set, the bytes of the arrays are kept added up in it
+
+    public KmerTable() {
+        this(1 << 16);
+    }
+
+    public KmerTable(int capacity) {
+        this(capacity, null);
+    }
+
+    public KmerTable(int capacity, LongAdder usage) {
+        this.usage = usage;
+        int cap = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        alloc(cap);
+    }
+
+    private void alloc(int cap) {
+        keys = new long[cap];
+        counts = new int[cap];
+        Arrays.fill(keys, -1L);
+        shift = 64 - Integer.numberOfTrailingZeros(cap);
+        limit = (int)(cap * 0.7);
+        if (usage != null) {
+            usage.add(12L * cap);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        return (int)((key * 0x9e3779b97f4a7c15L) >>> shift);
+    }
+
+    // add count occurrences of key
+    public void add(long key, int count) {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != -1L) {
+            if (keys[i] == key) {
+                counts[i] = (int)Math.min((long)counts[i] + count, Integer.MAX_VALUE);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        counts[i] = count;
+        if (++size >= limit) {
+            grow();
+        }
+    }
+
+    // count of key, 0 if absent
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); keys[i] != -1L; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return counts[i];
+            }
+        }
+        return 0;
+    }
+
+    // add every count of src into this table
+    public void merge(KmerTable src) {
+        for (int i = 0; i < src.keys.length; i++) {
+            if (src.keys[i] != -1L) {
+                add(src.keys[i], src.counts[i]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] old_keys = keys;
+        int[] old_counts = counts;
+        alloc(keys.length * 2);
+        if (usage != null) {
+            usage.add(-12L * old_keys.length);
+        }
+        int mask = keys.length - 1;
+        for (int j = 0; j < old_keys.length; j++) {
+            if (old_keys[j] != -1L) {
+                int i = slot(old_keys[j]);
+                while (keys[i] != -1L) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = old_keys[j];
+                counts[i] = old_counts[j];
+            }
+        }
+    }
+
+    // Packs the entries into keys[0..size-1] / counts[0..size-1] in
+    // ascending key order, in place.  The table can't be added to afterwards.
+    public void sort() {
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != -1L) {
+                keys[j] = keys[i];
+                counts[j] = counts[i];
+                j++;
+            }
+        }
+        sort(keys, counts, 0, size - 1);
+    }
+
+    static void sort(long[] keys, int[] freqs, int lo, int hi) {
+        // sort keys[lo..hi] ascending, moving freqs along with their keys
+        while (lo < hi) {
+            long pivot = keys[lo + (hi - lo)/2];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long k = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = k;
+                    int f = freqs[i];
+                    freqs[i] = freqs[j];
+                    freqs[j] = f;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller half, loop on the larger
+            if (j - lo < hi - i) {
+                sort(keys, freqs, lo, j);
+                lo = i;
+            }
+            else {
+                sort(keys, freqs, i, hi);
+                hi = j;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package genebank;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counts latencies in nanoseconds in log-linear buckets: exact below 16 ns,
+// then 8 buckets per power of two, so a percentile is off by at most an
+// eighth.  record() may be called from any number of threads at once.
+class LatencyHistogram {
+
+    static final int SUB_BITS = 3;
+    static final int SUB = 1 << SUB_BITS;
+    static final int LINEAR = 2 * SUB;  // values below this have a bucket each
+
+    AtomicLongArray counts = new AtomicLongArray(LINEAR + (63 - SUB_BITS) * SUB);
+
+    static int bucket(long nanos) {
+        if (nanos < LINEAR) {
+            return (int)Math.max(nanos, 0);
+        }
+        int e = 63 - Long.numberOfLeadingZeros(nanos);  // >= SUB_BITS + 1
+        int sub = (int)(nanos >>> (e - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (e - SUB_BITS - 1) * SUB + sub;
+    }
+
+    // smallest value that falls in bucket b
+    static long lowest(int b) {
+        if (b < LINEAR) {
+            return b;
+        }
+        int e = (b - LINEAR) / SUB + SUB_BITS + 1;
+        long sub = (b - LINEAR) % SUB;
+        return (1L << e) | (sub << (e - SUB_BITS));
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+    }
+
+    // n values of the same latency
+    public void record(long nanos, long n) {
+        counts.addAndGet(bucket(nanos), n);
+    }
+
+    public long count() {
+        long n = 0;
+        for (int b = 0; b < counts.length(); b++) {
+            n += counts.get(b);
+        }
+        return n;
+    }
+
+    // the latency below which a fraction p of the values fall, as the
+    // middle of its bucket; 0 with no values
+    public long percentile(double p) {
+        long n = count();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(p * n));
+        long seen = 0;
+        for (int b = 0; b < counts.length(); b++) {
+            seen += counts.get(b);
+            if (seen >= rank) {
+                return (b + 1 < counts.length()) ? (lowest(b) + lowest(b + 1) - 1) / 2 : lowest(b);
+            }
+        }
+        return 0;
+    }
+
+    public long max() {
+        for (int b = counts.length() - 1; b >= 0; b--) {
+            if (counts.get(b) > 0) {
+                return (b + 1 < counts.length()) ? lowest(b + 1) - 1 : Long.MAX_VALUE;
+            }
+        }
+        return 0;
+    }
+
+    // "name  count  p50  p99  max", latencies in microseconds
+    public String summary(String name) {
+        return String.format("  %-12s %10d %10.1f %10.1f %10.1f", name, count(),
+            percentile(0.50) / 1e3, percentile(0.99) / 1e3, max() / 1e3);
+    }
+
+    static String header() {
+        return String.format("  %-12s %10s %10s %10s %10s", "latency us", "count", "p50", "p99", "max");
+    }
+}
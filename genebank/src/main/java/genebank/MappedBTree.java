@@ -0,0 +1,319 @@
+package genebank;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Read-only access to a btree file through memory mapped buffers.  The file
+// is mapped in chunks of whole pages (a single mapping is limited to 2 GB),
+// and searches walk NodeViews over the mapping, so a lookup makes no system
+// calls and allocates nothing once the pages are in the page cache.
+class MappedBTree {
+
+    static final long CHUNK_BYTES = 1L << 30; // upper bound on one mapping
+
+    int k;
+    int t;
+    int flags;
+    int page_bytes; // 0 in version 1 files
+    boolean bplus;  // a B+tree, see BPlusLoader
+    long meta_bytes; // header size, nodes start here
+    long rpos; // position of root node in file
+    long NODE_BYTES;
+    BTree.Slots slots; // where the nodes are in the file
+    long nslots;    // nodes in the file
+    long chunk_bytes; // bytes mapped by each chunk, whole pages
+    MappedByteBuffer[] chunks;
+    // views of the calling thread, one per tree level, so any number of
+    // threads can search at once
+    ThreadLocal<NodeView[]> views = ThreadLocal.withInitial(() -> new NodeView[0]);
+
+    public MappedBTree(int k, int t, String filename) {
+        this(k, t, filename, 0);
+    }
+
+    // k, t and flags taken from the file header
+    public MappedBTree(String filename) {
+        this(BTree.Header.read(filename), filename);
+    }
+
+    private MappedBTree(BTree.Header h, String filename) {
+        this(h.k, h.t, filename, h.flags);
+    }
+
+    // the canonical flag must match the one in the file header
+    public MappedBTree(int k, int t, String filename, int flags) {
+        this.k = k;
+        this.t = t;
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(filename, "r");
+        } catch (FileNotFoundException ex) {
+            System.err.println("Can't open btree file " + filename + ". Exiting");
+            System.exit(1);
+        }
+        try {
+            BTree.Header h = BTree.Header.read(filename, file);
+            h.check(filename, k, t, flags);
+            this.flags = h.flags;
+            page_bytes = h.page_bytes;
+            meta_bytes = h.meta_bytes;
+            rpos = h.rpos;
+            slots = h.slots();
+            NODE_BYTES = slots.bytes;
+            bplus = (this.flags & BTree.BPLUS) != 0;
+            chunk_bytes = CHUNK_BYTES / slots.page * slots.page;
+
+            FileChannel channel = file.getChannel();
+            long node_bytes = file.length() - meta_bytes;
+            nslots = slots.count(file.length());
+            int nchunks = (int)((node_bytes + chunk_bytes - 1) / chunk_bytes);
+            chunks = new MappedByteBuffer[nchunks];
+            for (int c = 0; c < nchunks; c++) {
+                long start = meta_bytes + c * chunk_bytes;
+                long size = Math.min(chunk_bytes, file.length() - start);
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+            // the mappings stay valid after the file is closed
+            file.close();
+        } catch (IOException ex) {
+            System.err.println("Can't map btree file " + filename + ". Exiting");
+            System.exit(1);
+        }
+    }
+
+    // points v at the node stored at address
+    public NodeView view(long address, NodeView v) {
+        long a = address - meta_bytes;
+        return v.set(chunks[(int)(a / chunk_bytes)], (int)(a % chunk_bytes), address);
+    }
+
+    // levels of the tree, 1 for a root leaf; every leaf is this deep
+    public int height() {
+        NodeView x = view(rpos, new_view());
+        int h = 1;
+        while (!x.isLeaf()) {
+            x = view(x.child(0), x);
+            h++;
+        }
+        return h;
+    }
+
+    // key and its freq, or null if key is not in the tree
+    public BTree.Hit find(long key) {
+        int f = search(key);
+        return f > 0 ? new BTree.Hit(key, f) : null;
+    }
+
+    // freq of key, 0 if key is not in the tree
+    public int search(long key) {
+        if (bplus) {
+            return leaf(key).freq_of(key);
+        }
+        NodeView x = view(rpos, level(0));
+        while (true) {
+            int i = x.find(key);
+            if (i < x.n() && x.key(i) == key) {
+                return x.freq(i);
+            }
+            if (x.isLeaf()) {
+                return 0;
+            }
+            x = view(x.child(i), x);
+        }
+    }
+
+    // Looks up keys[0..n-1], which must be in ascending order, in one walk
+    // of the tree and sets freqs[i] to the count of keys[i], 0 if absent.
+    public void search_batch(long[] keys, int n, int[] freqs) {
+        Arrays.fill(freqs, 0, n, 0);
+        if (n > 0 && bplus) {
+            search_batch_plus_r(view(rpos, level(0)), keys, 0, n, freqs, 0);
+        }
+        else if (n > 0) {
+            search_batch_r(view(rpos, level(0)), keys, 0, n, freqs, 0);
+        }
+    }
+
+    private void search_batch_r(NodeView x, long[] keys, int lo, int hi, int[] freqs, int depth) {
+        int q = lo;
+        while (q < hi) {
+            int i = x.find(keys[q]);
+            if (i < x.n() && x.key(i) == keys[q]) {
+                freqs[q++] = x.freq(i);
+                continue;
+            }
+            // keys[q..] below x.key(i) all go down to child i
+            int start = q;
+            if (i < x.n()) {
+                long ki = x.key(i);
+                while (q < hi && keys[q] < ki) {
+                    q++;
+                }
+            }
+            else {
+                q = hi;
+            }
+            if (!x.isLeaf()) {
+                NodeView c = view(x.child(i), level(depth + 1));
+                search_batch_r(c, keys, start, q, freqs, depth + 1);
+            }
+        }
+    }
+
+    // the keys of a B+tree node, all in one leaf, go down the same way
+    private void search_batch_plus_r(NodeView x, long[] keys, int lo, int hi, int[] freqs, int depth) {
+        if (x.isLeaf()) {
+            for (int q = lo; q < hi; q++) {
+                freqs[q] = ((BPlusNodeView)x).freq_of(keys[q]);
+            }
+            return;
+        }
+        int n = x.n();
+        int q = lo;
+        while (q < hi) {
+            int i = child_index(x, keys[q]);
+            // keys[q..] below x.key(i) all go down to child i
+            int start = q;
+            if (i < n) {
+                long ki = x.key(i);
+                while (q < hi && keys[q] < ki) {
+                    q++;
+                }
+            }
+            else {
+                q = hi;
+            }
+            NodeView c = view(x.child(i), level(depth + 1));
+            search_batch_plus_r(c, keys, start, q, freqs, depth + 1);
+        }
+    }
+
+    // child of a B+tree internal node that holds key: keys[i] is the
+    // smallest key under child i+1
+    private static int child_index(NodeView x, long key) {
+        int i = x.find(key);
+        return (i < x.n() && x.key(i) == key) ? i + 1 : i;
+    }
+
+    // the B+tree leaf that holds key if it is in the tree
+    private BPlusNodeView leaf(long key) {
+        NodeView x = view(rpos, level(0));
+        while (!x.isLeaf()) {
+            x = view(x.child(child_index(x, key)), x);
+        }
+        return (BPlusNodeView)x;
+    }
+
+    // BTree.range over the mapping: v.visit(key, freq) for every key in
+    // [lo, hi] in ascending order, until visit returns false
+    public void range(long lo, long hi, BTree.KeyVisitor v) {
+        if (lo <= hi && bplus) {
+            range_plus(lo, hi, v);
+        }
+        else if (lo <= hi) {
+            range_r(view(rpos, level(0)), lo, hi, v, 0);
+        }
+    }
+
+    // one descent to the leaf of lo, then along the leaf chain
+    private void range_plus(long lo, long hi, BTree.KeyVisitor v) {
+        BPlusNodeView x = leaf(lo);
+        int j = x.find(lo);
+        while (true) {
+            int n = x.n();
+            for (; j < n; j++) {
+                long key = x.key(j);
+                if (key > hi || !v.visit(key, x.freq(j))) {
+                    return;
+                }
+            }
+            long next = x.next();
+            if (next == -1L) {
+                return;
+            }
+            view(next, x);
+            j = 0;
+        }
+    }
+
+    private boolean range_r(NodeView x, long lo, long hi, BTree.KeyVisitor v, int depth) {
+        int n = x.n();
+        for (int j = x.find(lo); j <= n; j++) {
+            if (!x.isLeaf()) {
+                NodeView c = view(x.child(j), level(depth + 1));
+                if (!range_r(c, lo, hi, v, depth + 1)) {
+                    return false;
+                }
+            }
+            if (j == n) {
+                break;
+            }
+            long key = x.key(j);
+            if (key > hi || !v.visit(key, x.freq(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The n keys with the highest freq.  Instead of walking the tree this
+    // scans the node slots in file order: every slot holds a live node, so
+    // each key is seen exactly once.  The slots are split into one region
+    // per thread, each region keeps its own TopN and they are merged.
+    public TopN top(final int n, int threads) {
+        final TopN[] tops = new TopN[threads];
+        Thread[] th = new Thread[threads];
+        for (int p = 0; p < threads; p++) {
+            final int part = p;
+            final long from = nslots * p / threads;
+            final long to = nslots * (p + 1) / threads;
+            th[p] = new Thread(() -> {
+                TopN top = new TopN(n);
+                NodeView v = new_view();
+                for (long s = from; s < to; s++) {
+                    view(slots.address(s), v);
+                    if (bplus && !v.isLeaf()) {
+                        continue; // separators only, the keys are in the leaves
+                    }
+                    int m = v.n();
+                    for (int i = 0; i < m; i++) {
+                        top.offer(v.key(i), v.freq(i));
+                    }
+                }
+                tops[part] = top;
+            });
+            th[p].start();
+        }
+        TopN top = new TopN(n);
+        for (int p = 0; p < threads; p++) {
+            try {
+                th[p].join();
+            } catch (InterruptedException ex) {
+                System.err.println("interrupted.  Exiting.");
+                System.exit(1);
+            }
+            top.merge(tops[p]);
+        }
+        top.sort();
+        return top;
+    }
+
+    private NodeView new_view() {
+        return NodeView.create(k, t, flags, slots);
+    }
+
+    private NodeView level(int depth) {
+        NodeView[] v = views.get();
+        if (depth >= v.length) {
+            v = Arrays.copyOf(v, depth + 1);
+            v[depth] = new_view();
+            views.set(v);
+        }
+        return v[depth];
+    }
+}
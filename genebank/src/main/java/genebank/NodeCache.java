@@ -0,0 +1,139 @@
+package genebank;
+
+import java.util.Arrays;
+
+// Maps node file addresses to slots of a fixed-size buffer pool and keeps
+// the slots in least recently used order.  Only primitive arrays are used
+// so lookups and replacements allocate nothing.  The node frames themselves
+// live in BTree; this class only decides which slot holds which address.
+class NodeCache {
+
+    int capacity;
+    int used;           // slots handed out so far
+    long[] addresses;   // address held by each slot
+    int[] prev;         // LRU list, head = most recently used
+    int[] next;
+    int head;
+    int tail;
+
+    // open addressing table from address to slot, -1 = empty
+    int[] table;
+    int mask;
+
+    public NodeCache(int capacity) {
+        this.capacity = capacity;
+        addresses = new long[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        head = -1;
+        tail = -1;
+        int size = Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1;
+        table = new int[size];
+        Arrays.fill(table, -1);
+        mask = size - 1;
+    }
+
+    // forget every address, all slots become unused
+    public void clear() {
+        used = 0;
+        head = -1;
+        tail = -1;
+        Arrays.fill(table, -1);
+    }
+
+    private int hash(long address) {
+        long h = address * 0x9e3779b97f4a7c15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    // slot holding address, or -1.  A hit becomes the most recently used.
+    public int find(long address) {
+        for (int i = hash(address); table[i] != -1; i = (i + 1) & mask) {
+            int s = table[i];
+            if (addresses[s] == address) {
+                touch(s);
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    // slot to load a new address into: an unused slot while there are any,
+    // then the least recently used one.  The caller must save the old
+    // contents (address(slot) != -1) before calling assign().
+    public int victim() {
+        if (used < capacity) {
+            addresses[used] = -1L;
+            return used++;
+        }
+        return tail;
+    }
+
+    public long address(int slot) {
+        return addresses[slot];
+    }
+
+    // slot now holds address and becomes the most recently used
+    public void assign(int slot, long address) {
+        if (addresses[slot] != -1L) {
+            remove(addresses[slot]);
+            unlink(slot);
+        }
+        addresses[slot] = address;
+        int i = hash(address);
+        while (table[i] != -1) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot;
+        link(slot);
+    }
+
+    private void remove(long address) {
+        int i = hash(address);
+        while (addresses[table[i]] != address) {
+            i = (i + 1) & mask;
+        }
+        table[i] = -1;
+        // shift back later entries of the probe run so lookups still find them
+        for (int j = (i + 1) & mask; table[j] != -1; j = (j + 1) & mask) {
+            int h = hash(addresses[table[j]]);
+            if (((j - h) & mask) >= ((j - i) & mask)) {
+                table[i] = table[j];
+                table[j] = -1;
+                i = j;
+            }
+        }
+    }
+
+    private void touch(int s) {
+        if (s != head) {
+            unlink(s);
+            link(s);
+        }
+    }
+
+    private void link(int s) {
+        prev[s] = -1;
+        next[s] = head;
+        if (head != -1) {
+            prev[head] = s;
+        }
+        head = s;
+        if (tail == -1) {
+            tail = s;
+        }
+    }
+
+    private void unlink(int s) {
+        if (prev[s] != -1) {
+            next[prev[s]] = next[s];
+        } else {
+            head = next[s];
+        }
+        if (next[s] != -1) {
+            prev[next[s]] = prev[s];
+        } else {
+            tail = prev[s];
+        }
+    }
+}
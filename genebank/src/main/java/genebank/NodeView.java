@@ -0,0 +1,75 @@
+package genebank;
+
+import java.nio.ByteBuffer;
+
+// A read-only view of one node as it is laid out in the btree file:
+//   +0 char leaf, +2 char root, +4 int n,
+//   +8 (2t-1) x (long key, int freq), then 2t x long child address.
+// Nothing is decoded up front; n, keys, freqs and children are read straight
+// from the buffer, and the same view is moved from node to node.
+class NodeView {
+
+    ByteBuffer buf;
+    int base;           // offset of the node in buf
+    long address;       // file address of the node
+    int children_off;   // offset of the children pointers in a node
+
+    public NodeView(int t) {
+        children_off = 8 + 12*(2*t-1);
+    }
+
+    // a view for the node encoding given by the BTree flags
+    static NodeView create(int k, int t, int flags, BTree.Slots slots) {
+        if ((flags & BTree.BPLUS) != 0) {
+            return new BPlusNodeView(t);
+        }
+        if ((flags & BTree.COMPACT) != 0) {
+            return new CompactNodeView(k, t, slots);
+        }
+        return new NodeView(t);
+    }
+
+    public NodeView set(ByteBuffer buf, int base, long address) {
+        this.buf = buf;
+        this.base = base;
+        this.address = address;
+        return this;
+    }
+
+    public boolean isLeaf() {
+        return buf.getChar(base) == 'L';
+    }
+
+    public int n() {
+        return buf.getInt(base + 4);
+    }
+
+    public long key(int i) {
+        return buf.getLong(base + 8 + 12*i);
+    }
+
+    public int freq(int i) {
+        return buf.getInt(base + 16 + 12*i);
+    }
+
+    public long child(int i) {
+        return buf.getLong(base + children_off + 8*i);
+    }
+
+    // index of the first key >= key, or n if all keys are smaller, by the
+    // same branchless binary search as BTreeNode.find
+    public int find(long key) {
+        int n = n();
+        if (n == 0) {
+            return 0;
+        }
+        int base = 0;
+        int len = n;
+        while (len > 1) {
+            int half = len >>> 1;
+            base = (key(base + half) < key) ? base + half : base;
+            len -= half;
+        }
+        return (key(base) < key) ? base + 1 : base;
+    }
+}
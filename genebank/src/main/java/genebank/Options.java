@@ -0,0 +1,69 @@
+package genebank;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Splits a command line into "--name [value]" options and the remaining
+// positional arguments, in any order.
+class Options {
+
+    ArrayList<String> args = new ArrayList<>(); // positional arguments
+    HashMap<String, String> values = new HashMap<>();
+
+    // switches take no value, valued options take the next argument
+    public Options(String[] argv, String use, String[] switches, String[] valued) {
+        for(int i = 0; i < argv.length; i++) {
+            String a = argv[i];
+            if(!a.startsWith("--")) {
+                args.add(a);
+            }
+            else if(contains(switches, a)) {
+                values.put(a, "1");
+            }
+            else if(contains(valued, a) && i + 1 < argv.length) {
+                values.put(a, argv[++i]);
+            }
+            else {
+                System.err.println("bad option " + a);
+                System.err.println("use " + use);
+                System.exit(1);
+            }
+        }
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for(String n : names) {
+            if(n.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return args.size();
+    }
+
+    public String get(int i) {
+        return args.get(i);
+    }
+
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    public String get(String name, String def) {
+        String v = values.get(name);
+        return v == null ? def : v;
+    }
+
+    public int get_int(String name, int def) {
+        String v = values.get(name);
+        return v == null ? def : Integer.parseInt(v);
+    }
+
+    public double get_double(String name, double def) {
+        String v = values.get(name);
+        return v == null ? def : Double.parseDouble(v);
+    }
+}
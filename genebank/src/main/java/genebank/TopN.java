@@ -0,0 +1,91 @@
+package genebank;
+
+// The n most frequent keys seen so far, kept in a bounded min-heap of
+// primitive arrays: the root is the weakest entry and is replaced when a
+// stronger one comes along, so offering m keys costs O(m log n).  Ties on
+// freq go to the smaller key, which makes the result independent of the
+// order the keys are offered in.
+class TopN {
+
+    int cap;
+    int size;
+    long[] keys;
+    int[] freqs;
+
+    public TopN(int cap) {
+        this.cap = cap;
+        keys = new long[cap];
+        freqs = new int[cap];
+    }
+
+    // true if entry a ranks below entry b
+    private boolean weaker(int a, int b) {
+        return freqs[a] < freqs[b] || (freqs[a] == freqs[b] && keys[a] > keys[b]);
+    }
+
+    public void offer(long key, int freq) {
+        if (size < cap) {
+            keys[size] = key;
+            freqs[size] = freq;
+            up(size++);
+        }
+        else if (cap > 0 && (freq > freqs[0] || (freq == freqs[0] && key < keys[0]))) {
+            keys[0] = key;
+            freqs[0] = freq;
+            down(0, size);
+        }
+    }
+
+    public void merge(TopN other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.keys[i], other.freqs[i]);
+        }
+    }
+
+    // Puts keys[0..size-1] in descending freq order (ascending key among
+    // equal freqs).  The heap can't be offered to afterwards.
+    public void sort() {
+        // heap sort: move the weakest to the end each time
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            down(0, end);
+        }
+    }
+
+    private void up(int i) {
+        while (i > 0) {
+            int p = (i - 1) / 2;
+            if (!weaker(i, p)) {
+                break;
+            }
+            swap(i, p);
+            i = p;
+        }
+    }
+
+    private void down(int i, int end) {
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= end) {
+                break;
+            }
+            if (c + 1 < end && weaker(c + 1, c)) {
+                c++;
+            }
+            if (!weaker(c, i)) {
+                break;
+            }
+            swap(i, c);
+            i = c;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+        int f = freqs[a];
+        freqs[a] = freqs[b];
+        freqs[b] = f;
+    }
+}
@@ -0,0 +1,542 @@
+package genebank;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Builds trees with GeneBankCreateBTree from random gbk files, looks every
+// k-mer up again with GeneBankSearch and compares the answers with counts
+// made here.  The tools run in JVMs of their own (see run), so one that
+// exits on an error fails the test instead of ending the test run.
+class GeneBankRoundTripTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void plain() {
+        round_trip(12, 20, false, new String[] {}, new String[] {});
+    }
+
+    @Test
+    void plain_optimal_degree() {
+        round_trip(20, 0, false, new String[] {}, new String[] {"--mmap"});
+    }
+
+    @Test
+    void canonical() {
+        round_trip(12, 20, true, new String[] {"--canonical"}, new String[] {"--canonical"});
+    }
+
+    @Test
+    void compact() {
+        round_trip(12, 0, false, new String[] {"--compact"}, new String[] {});
+        round_trip(31, 0, false, new String[] {"--compact"}, new String[] {"--mmap"});
+        round_trip(9, 3, true, new String[] {"--compact", "--canonical"}, new String[] {"--canonical", "--batch", "50"});
+    }
+
+    @Test
+    void bplus() {
+        round_trip(12, 20, false, new String[] {"--bplus"}, new String[] {});
+        round_trip(16, 0, false, new String[] {"--bplus"}, new String[] {"--mmap"});
+    }
+
+    @Test
+    void page_size() {
+        round_trip(12, 0, false, new String[] {"--page-size", "1024"}, new String[] {});
+        round_trip(12, 0, false, new String[] {"--compact", "--page-size", "1024"}, new String[] {"--mmap"});
+        round_trip(12, 5, false, new String[] {"--bplus", "--page-size", "512"}, new String[] {});
+    }
+
+    @Test
+    void built_with_cache() {
+        List<String> seqs = random_seqs(9, 3, 4000);
+        round_trip(seqs, 12, 20, false, "1", new String[] {}, new String[] {});
+        round_trip(seqs, 12, 0, false, "1", new String[] {"--compact"}, new String[] {"--mmap"});
+    }
+
+    @Test
+    void single_and_multi_threaded_search() {
+        // one thread reads through the node cache, one lookup or one
+        // search_batch walk at a time; more threads share no cache and go
+        // through find and find_batch
+        round_trip(12, 20, false, new String[] {}, new String[] {"--threads", "1"});
+        round_trip(12, 20, false, new String[] {}, new String[] {"--threads", "1", "--batch", "100"});
+        round_trip(12, 20, false, new String[] {}, new String[] {"--threads", "3", "--batch", "64"});
+        round_trip(12, 20, false, new String[] {}, new String[] {"--threads", "3"});
+        round_trip(12, 0, false, new String[] {"--compact"}, new String[] {"--threads", "4", "--batch", "32"});
+        round_trip(12, 20, false, new String[] {}, new String[] {"--mmap", "--threads", "2"});
+    }
+
+    @Test
+    void max_memory() {
+        // about 250k distinct 16-mers, several times what 1 MB of tables holds
+        List<String> seqs = random_seqs(7, 5, 50000);
+        round_trip(seqs, 16, 20, false, "0", new String[] {"--max-memory", "1", "--threads", "1"}, new String[] {"--mmap"});
+    }
+
+    @Test
+    void several_lengths() {
+        List<String> seqs = random_seqs(10, 3, 4000);
+        Path run = fresh_dir();
+        String gbk = write_gbk(run, "run.gbk", seqs);
+        create(new String[] {"--compact"}, "0", "0", gbk, "6,11,20");
+        for (int k : new int[] {6, 11, 20}) {
+            TreeMap<String, Integer> expected = count(seqs, k, false);
+            assertEquals(expected, search(run, tree_file(run, "run.gbk", k), k, expected, new String[] {}));
+        }
+    }
+
+    @Test
+    void prefix_queries() {
+        List<String> seqs = random_seqs(11, 3, 4000);
+        Path run = fresh_dir();
+        String gbk = write_gbk(run, "run.gbk", seqs);
+        create(new String[] {}, "0", "20", gbk, "8");
+        String file = tree_file(run, "run.gbk", 8);
+        TreeMap<String, Integer> expected = count(seqs, 8, false);
+
+        // prefixes of every length, whole k-mers and misses between them
+        String some = expected.lastKey();
+        List<String> queries = new ArrayList<>(Arrays.asList(
+            "ACG*", expected.firstKey(), "t*", some.substring(0, 5) + "*", "acgtacgtt*",
+            some + "*", "gggggggg", "*", some.substring(0, 2) + "*"));
+        List<String> lines = new ArrayList<>();
+        for (String q : queries) {
+            String s = q.toLowerCase();
+            if (s.endsWith("*")) {
+                String prefix = s.substring(0, s.length() - 1);
+                for (Map.Entry<String, Integer> e : expected.subMap(prefix, prefix + "z").entrySet()) {
+                    lines.add(e.getKey() + ": " + e.getValue());
+                }
+            }
+            else if (expected.containsKey(s)) {
+                lines.add(s + ": " + expected.get(s));
+            }
+        }
+        String query_file = write_lines(run, "prefix.txt", queries);
+        String[][] modes = {{"--threads", "1"}, {"--threads", "1", "--batch", "4"}, {"--mmap", "--threads", "1"},
+                            {"--threads", "3", "--batch", "2"}};
+        for (String[] opts : modes) {
+            List<String> argv = new ArrayList<>(Arrays.asList(opts));
+            argv.addAll(Arrays.asList("1", file, query_file));
+            String[] out = run(0, GeneBankSearch.class, argv);
+            assertEquals(lines, Arrays.asList(out[0].split("\n")), Arrays.toString(opts));
+            assertTrue(out[1].contains("prefix query acgtacgtt* is longer than k = 8"), out[1]);
+        }
+
+        create(new String[] {"--canonical"}, "0", "20", gbk, "8");
+        String[] out = run(0, GeneBankSearch.class, Arrays.asList("--canonical", "--threads", "1", "1", file, query_file));
+        assertTrue(out[1].contains("needs a tree built without --canonical"), out[1]);
+    }
+
+    @Test
+    void top() {
+        // short k-mers, so they are seen many times
+        List<String> seqs = random_seqs(12, 3, 4000);
+        Path run = fresh_dir();
+        String gbk = write_gbk(run, "run.gbk", seqs);
+        TreeMap<String, Integer> expected = count(seqs, 5, false);
+        // most frequent first, then in key order
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(expected.entrySet());
+        ranked.sort((a, b) -> (!a.getValue().equals(b.getValue())) ? b.getValue() - a.getValue() : a.getKey().compareTo(b.getKey()));
+        List<String> best = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            best.add(ranked.get(i).getKey() + ": " + ranked.get(i).getValue());
+        }
+        for (String[] opts : new String[][] {{}, {"--compact"}, {"--bplus"}}) {
+            create(opts, "0", "3", gbk, "5");
+            String file = tree_file(run, "run.gbk", 5);
+            for (String threads : new String[] {"1", "3"}) {
+                String[] out = run(0, GeneBankSearch.class, Arrays.asList("--top", "25", "--threads", threads, "1", file));
+                assertEquals(best, Arrays.asList(out[0].split("\n")), Arrays.toString(opts) + " on " + threads + " threads");
+            }
+        }
+    }
+
+    @Test
+    void stats() {
+        List<String> seqs = random_seqs(13, 3, 4000);
+        Path run = fresh_dir();
+        String gbk = write_gbk(run, "run.gbk", seqs);
+        String err = create(new String[] {"--stats"}, "1", "20", gbk, "12");
+        assertTrue(err.contains("stats for "), err);
+        assertTrue(err.contains("node reads"), err);
+        assertTrue(err.contains("node write"), err);
+
+        String file = tree_file(run, "run.gbk", 12);
+        TreeMap<String, Integer> expected = count(seqs, 12, false);
+        List<String> queries = queries(12, expected);
+        String query_file = write_lines(run, "queries.txt", queries);
+        for (String[] opts : new String[][] {{"--threads", "1"}, {"--threads", "2", "--batch", "100"}, {"--mmap", "--threads", "1"}}) {
+            List<String> argv = new ArrayList<>(Arrays.asList("--stats"));
+            argv.addAll(Arrays.asList(opts));
+            argv.addAll(Arrays.asList("1", file, query_file));
+            String[] out = run(0, GeneBankSearch.class, argv);
+            // the results are the same, the summary goes to stderr
+            assertEquals(expected, parse(out[0]));
+            Matcher m = Pattern.compile("(\\d+) lookups in ").matcher(out[1]);
+            assertTrue(m.find(), out[1]);
+            assertEquals(queries.size(), Integer.parseInt(m.group(1)), out[1]);
+            assertTrue(out[1].contains("lookup "), out[1]);
+        }
+    }
+
+    @Test
+    void server_and_client() throws Exception {
+        List<String> seqs = random_seqs(14, 3, 4000);
+        Path run = fresh_dir();
+        String gbk = write_gbk(run, "run.gbk", seqs);
+        create(new String[] {}, "0", "20", gbk, "12");
+        String plain = tree_file(run, "run.gbk", 12);
+        create(new String[] {"--canonical", "--compact"}, "0", "0", gbk, "9");
+        String canonical = tree_file(run, "run.gbk", 9);
+
+        Path socket = run.resolve("s.sock");
+        Process server = start(GeneBankServer.class, Arrays.asList("--socket", socket.toString(), plain, canonical));
+        try {
+            // the socket file appears once the server listens
+            for (int i = 0; i < 200 && !Files.exists(socket); i++) {
+                assertTrue(server.isAlive(), "the server exited");
+                Thread.sleep(50);
+            }
+            assertTrue(Files.exists(socket), "the server is not listening");
+
+            String[] trees = {plain, canonical};
+            int[] ks = {12, 9};
+            for (int i = 0; i < trees.length; i++) {
+                TreeMap<String, Integer> expected = count(seqs, ks[i], i == 1);
+                String query_file = write_lines(run, "queries" + i + ".txt", queries(ks[i], expected));
+                for (String batch : new String[] {"0", "100"}) {
+                    String[] out = run(0, GeneBankClient.class,
+                        Arrays.asList("--socket", socket.toString(), "--batch", batch, Integer.toString(i), query_file));
+                    assertEquals(expected, parse(out[0]), trees[i] + " in batches of " + batch);
+                }
+            }
+            String[] out = run(1, GeneBankClient.class,
+                Arrays.asList("--socket", socket.toString(), "2", write_lines(run, "none.txt", new ArrayList<>())));
+            assertTrue(out[1].contains("the server has no tree 2"), out[1]);
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    @Test
+    void append_by_upserts() {
+        List<String> base = random_seqs(1, 4, 5000);
+        List<String> delta = random_seqs(2, 1, 40);
+        append(base, delta, 12, 20, new String[] {}, "1");
+        assertTrue(last_err.contains("by upserts"), last_err);
+    }
+
+    @Test
+    void append_by_upserts_without_cache() {
+        // compact nodes hold many keys, the tree needs enough of them that
+        // the delta touches only a few
+        List<String> base = random_seqs(1, 4, 40000);
+        // keys already in the tree as well as new ones
+        List<String> delta = new ArrayList<>(random_seqs(3, 1, 40));
+        delta.add(base.get(2).substring(100, 160));
+        append(base, delta, 12, 20, new String[] {"--compact"}, "0");
+        assertTrue(last_err.contains("by upserts"), last_err);
+    }
+
+    @Test
+    void compact_upserts_split_full_nodes() {
+        // the bulk load packs every node, so new keys split the ones they
+        // land in, with counts big enough to widen the varints
+        List<String> base = random_seqs(15, 4, 40000);
+        List<String> delta = new ArrayList<>(random_seqs(16, 1, 60));
+        for (int i = 0; i < 200; i++) {
+            delta.add(base.get(1).substring(500, 520));
+        }
+        append(base, delta, 12, 20, new String[] {"--compact"}, "1", "--stats");
+        assertTrue(last_err.contains("by upserts"), last_err);
+        Matcher m = Pattern.compile("splits (\\d+)").matcher(last_err);
+        assertTrue(m.find(), last_err);
+        assertTrue(Integer.parseInt(m.group(1)) > 0, last_err);
+    }
+
+    @Test
+    void append_by_merge() {
+        List<String> base = random_seqs(1, 4, 5000);
+        List<String> delta = new ArrayList<>(random_seqs(4, 4, 5000));
+        delta.addAll(base);
+        append(base, delta, 12, 20, new String[] {}, "1");
+        assertTrue(last_err.contains("by a merge rebuild"), last_err);
+        append(base, delta, 12, 20, new String[] {"--bplus"}, "1");
+        assertTrue(last_err.contains("by a merge rebuild"), last_err);
+        append(base, delta, 12, 0, new String[] {"--compact"}, "0");
+        assertTrue(last_err.contains("by a merge rebuild"), last_err);
+    }
+
+    @Test
+    void bloom_filter_counts_distinct_keys() {
+        List<String> base = random_seqs(5, 4, 20000);
+        // mostly keys that are in the tree already
+        List<String> delta = new ArrayList<>(random_seqs(6, 1, 30));
+        delta.add(base.get(0).substring(0, 150));
+        String file = append(base, delta, 12, 20, new String[] {"--bloom", "0.01"}, "1");
+        assertTrue(last_err.contains("by upserts"), last_err);
+        BloomFilter bloom = BloomFilter.open(file, false);
+        assertNotNull(bloom);
+        List<String> all = new ArrayList<>(base);
+        all.addAll(delta);
+        assertEquals(count(all, 12, false).size(), bloom.keys);
+
+        delta = new ArrayList<>(random_seqs(8, 4, 20000));
+        delta.addAll(base);
+        file = append(base, delta, 12, 20, new String[] {"--bloom", "0.01"}, "1");
+        assertTrue(last_err.contains("by a merge rebuild"), last_err);
+        bloom = BloomFilter.open(file, false);
+        assertNotNull(bloom);
+        all = new ArrayList<>(base);
+        all.addAll(delta);
+        assertEquals(count(all, 12, false).size(), bloom.keys);
+    }
+
+    // Builds a tree of random sequences and checks a search of all its
+    // k-mers, and of some that aren't in it, against count().
+    void round_trip(int k, int t, boolean canonical, String[] create_opts, String[] search_opts) {
+        round_trip(random_seqs(k * 31 + t, 3, 4000), k, t, canonical, "0", create_opts, search_opts);
+    }
+
+    void round_trip(List<String> seqs, int k, int t, boolean canonical, String use_cache, String[] create_opts, String[] search_opts) {
+        Path run = fresh_dir();
+        String gbk = write_gbk(run, "run.gbk", seqs);
+        create(create_opts, use_cache, Integer.toString(t), gbk, Integer.toString(k));
+        String file = tree_file(run, "run.gbk", k);
+        TreeMap<String, Integer> expected = count(seqs, k, canonical);
+        assertEquals(expected, search(run, file, k, expected, search_opts));
+    }
+
+    String last_err;    // what the last append() wrote to stderr
+
+    // Builds a tree of base, appends delta to it and checks a search
+    // against the counts of both.  Returns the tree file.
+    String append(List<String> base, List<String> delta, int k, int t, String[] create_opts, String use_cache, String... append_opts) {
+        Path run = fresh_dir();
+        String gbk = write_gbk(run, "base.gbk", base);
+        String delta_gbk = write_gbk(run, "delta.gbk", delta);
+        create(create_opts, "0", Integer.toString(t), gbk, Integer.toString(k));
+        String file = tree_file(run, "base.gbk", k);
+        List<String> opts = new ArrayList<>(Arrays.asList(append_opts));
+        opts.addAll(Arrays.asList("--append", file));
+        last_err = create(opts.toArray(new String[0]), use_cache, "0", delta_gbk, Integer.toString(k));
+        List<String> all = new ArrayList<>(base);
+        all.addAll(delta);
+        TreeMap<String, Integer> expected = count(all, k, false);
+        assertEquals(expected, search(run, file, k, expected, new String[] {}));
+        assertEquals(expected, search(run, file, k, expected, new String[] {"--mmap"}));
+        return file;
+    }
+
+    Path fresh_dir() {
+        try {
+            return Files.createTempDirectory(dir, "run");
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    // runs GeneBankCreateBTree, returns what it wrote to stderr
+    String create(String[] opts, String... args) {
+        List<String> argv = new ArrayList<>(Arrays.asList(opts));
+        argv.addAll(Arrays.asList(args));
+        return run(0, GeneBankCreateBTree.class, argv)[1];
+    }
+
+    // Looks up every key of expected, and a few random k-mers, and returns
+    // the answers GeneBankSearch printed.  The search runs on one thread
+    // unless opts asks for more.
+    TreeMap<String, Integer> search(Path run, String file, int k, TreeMap<String, Integer> expected, String[] opts) {
+        String query_file = write_lines(run, "queries.txt", queries(k, expected));
+        List<String> argv = new ArrayList<>(Arrays.asList(opts));
+        if (!argv.contains("--threads")) {
+            argv.addAll(Arrays.asList("--threads", "1"));
+        }
+        argv.addAll(Arrays.asList("1", file, query_file));
+        return parse(run(0, GeneBankSearch.class, argv)[0]);
+    }
+
+    // every key of expected, upper case, and up to 200 random k-mers that
+    // are not in it
+    static List<String> queries(int k, TreeMap<String, Integer> expected) {
+        List<String> queries = new ArrayList<>();
+        for (String key : expected.keySet()) {
+            queries.add(key.toUpperCase());
+        }
+        Random rnd = new Random(k);
+        for (int i = 0; i < 200; i++) {
+            StringBuilder s = new StringBuilder();
+            for (int j = 0; j < k; j++) {
+                s.append("acgt".charAt(rnd.nextInt(4)));
+            }
+            if (!expected.containsKey(s.toString()) && !expected.containsKey(reverse_complement(s.toString()))) {
+                queries.add(s.toString());
+            }
+        }
+        return queries;
+    }
+
+    // the "k-mer: freq" lines of a search, each k-mer answered once
+    static TreeMap<String, Integer> parse(String out) {
+        TreeMap<String, Integer> found = new TreeMap<>();
+        for (String line : out.split("\n")) {
+            if (!line.isEmpty()) {
+                String[] kv = line.split(": ");
+                assertEquals(null, found.put(kv[0], Integer.parseInt(kv[1].trim())), "answered twice: " + line);
+            }
+        }
+        return found;
+    }
+
+    // Runs the main of cls in a new JVM on the class path of the tests and
+    // returns its stdout and stderr.  The test fails unless it exits with
+    // status.
+    String[] run(int status, Class<?> cls, List<String> argv) {
+        try {
+            Path out = Files.createTempFile(dir, "out", ".txt");
+            Path err = Files.createTempFile(dir, "err", ".txt");
+            ProcessBuilder pb = new ProcessBuilder(command(cls, argv));
+            pb.redirectOutput(out.toFile());
+            pb.redirectError(err.toFile());
+            int exit = pb.start().waitFor();
+            String[] result = {Files.readString(out), Files.readString(err)};
+            if (exit != status) {
+                fail(cls.getSimpleName() + " " + argv + " exited with " + exit + ":\n" + tail(result[1]));
+            }
+            return result;
+        } catch (IOException | InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    // starts the main of cls like run, without waiting for it
+    Process start(Class<?> cls, List<String> argv) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(command(cls, argv));
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(Files.createTempFile(dir, "err", ".txt").toFile());
+        return pb.start();
+    }
+
+    static List<String> command(Class<?> cls, List<String> argv) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(cls.getName());
+        cmd.addAll(argv);
+        return cmd;
+    }
+
+    // the end of a tool's stderr, past the progress dots
+    static String tail(String err) {
+        return err.substring(Math.max(0, err.length() - 2000));
+    }
+
+    // the tree GeneBankCreateBTree wrote for gbk, whatever degree it picked
+    static String tree_file(Path run, String gbk, int k) {
+        String prefix = gbk + ".btree.data." + k + ".";
+        for (File f : run.toFile().listFiles()) {
+            if (f.getName().startsWith(prefix) && !f.getName().endsWith(".bloom")) {
+                return f.getPath();
+            }
+        }
+        throw new AssertionError("no tree file " + prefix + "* in " + run);
+    }
+
+    static String write_lines(Path run, String name, List<String> lines) {
+        Path f = run.resolve(name);
+        try {
+            Files.write(f, lines);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return f.toString();
+    }
+
+    // n sequences of len bases, with an occasional n that no k-mer spans
+    static List<String> random_seqs(long seed, int n, int len) {
+        Random rnd = new Random(seed);
+        List<String> seqs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            StringBuilder s = new StringBuilder();
+            for (int j = 0; j < len; j++) {
+                s.append(rnd.nextInt(500) == 0 ? 'n' : "acgt".charAt(rnd.nextInt(4)));
+            }
+            seqs.add(s.toString());
+        }
+        return seqs;
+    }
+
+    // seqs in GenBank flat file format, 60 bases to a line in groups of 10
+    static String write_gbk(Path run, String name, List<String> seqs) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < seqs.size(); i++) {
+            String s = seqs.get(i);
+            b.append("LOCUS       SEQ").append(i).append('\n');
+            b.append("ORIGIN\n");
+            for (int j = 0; j < s.length(); j += 60) {
+                b.append(String.format("%9d", j + 1));
+                for (int g = j; g < Math.min(j + 60, s.length()); g += 10) {
+                    b.append(' ').append(s, g, Math.min(g + 10, s.length()));
+                }
+                b.append('\n');
+            }
+            b.append("//\n");
+        }
+        Path f = run.resolve(name);
+        try {
+            Files.writeString(f, b);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return f.toString();
+    }
+
+    // the reference counts: every k-mer of acgt only, or the smaller of it
+    // and its reverse complement when canonical
+    static TreeMap<String, Integer> count(List<String> seqs, int k, boolean canonical) {
+        TreeMap<String, Integer> counts = new TreeMap<>();
+        for (String s : seqs) {
+            for (int i = 0; i + k <= s.length(); i++) {
+                String w = s.substring(i, i + k);
+                if (w.indexOf('n') >= 0) {
+                    continue;
+                }
+                if (canonical && reverse_complement(w).compareTo(w) < 0) {
+                    w = reverse_complement(w);
+                }
+                counts.merge(w, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    static String reverse_complement(String w) {
+        StringBuilder rc = new StringBuilder();
+        for (int j = w.length() - 1; j >= 0; j--) {
+            rc.append("tgca".charAt("acgt".indexOf(w.charAt(j))));
+        }
+        return rc.toString();
+    }
+}
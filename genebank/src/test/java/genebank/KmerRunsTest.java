@@ -0,0 +1,89 @@
+package genebank;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Spills many small runs, as KmerCounter does under --max-memory, and checks
+// that the cursor gives back the counts of a HashMap fed the same keys.
+class KmerRunsTest {
+
+    @Test
+    void more_runs_than_merged_at_once() {
+        // past one full tier of merges, with runs of both tiers left over
+        check(3 * KmerRuns.MAX_RUNS + 5, 40, 5000);
+    }
+
+    @Test
+    void more_runs_than_a_cursor_opens() {
+        // MAX_RUNS - 1 runs of each of the two lowest tiers: the cursor has
+        // to merge some of them first
+        check((KmerRuns.MAX_RUNS - 1) * (KmerRuns.MAX_RUNS + 1), 4, 1000);
+    }
+
+    @Test
+    void counts_saturate() {
+        KmerRuns runs = new KmerRuns();
+        for (int i = 0; i < 3; i++) {
+            KmerTable part = new KmerTable(16);
+            part.add(7L, Integer.MAX_VALUE - 1);
+            part.add(9L, 1);
+            part.sort();
+            runs.spill(new KmerTable[] {part});
+        }
+        KmerRuns.Cursor c = runs.cursor();
+        assertEquals(7L, c.key());
+        assertEquals(Integer.MAX_VALUE, c.count());
+        c.next();
+        assertEquals(9L, c.key());
+        assertEquals(3, c.count());
+        c.next();
+        assertFalse(c.has());
+        runs.delete();
+
+        KmerTable t = new KmerTable(16);
+        t.add(5L, Integer.MAX_VALUE);
+        t.add(5L, Integer.MAX_VALUE);
+        t.sort();
+        assertEquals(Integer.MAX_VALUE, t.counts[0]);
+    }
+
+    static void check(int spills, int keys_per_spill, int key_range) {
+        Random rnd = new Random(spills);
+        Map<Long, Integer> expected = new HashMap<>();
+        KmerRuns runs = new KmerRuns();
+        for (int s = 0; s < spills; s++) {
+            // two partitions in key order, like KmerCounter's
+            KmerTable low = new KmerTable(16);
+            KmerTable high = new KmerTable(16);
+            for (int i = 0; i < keys_per_spill; i++) {
+                long key = rnd.nextInt(key_range);
+                int count = 1 + rnd.nextInt(3);
+                (key < key_range / 2 ? low : high).add(key, count);
+                expected.merge(key, count, Integer::sum);
+            }
+            low.sort();
+            high.sort();
+            runs.spill(new KmerTable[] {low, high});
+        }
+        assertTrue(runs.files.size() < spills);
+
+        Map<Long, Integer> found = new HashMap<>();
+        long last = -1;
+        for (KmerRuns.Cursor c = runs.cursor(); c.has(); c.next()) {
+            assertTrue(c.key() > last, "keys out of order");
+            last = c.key();
+            found.put(c.key(), c.count());
+        }
+        assertTrue(runs.files.size() <= KmerRuns.MAX_RUNS);
+        assertEquals(expected, found);
+        assertEquals(expected.size(), runs.count());
+        runs.delete();
+    }
+}